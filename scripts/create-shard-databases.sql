@@ -0,0 +1,3 @@
+-- run by the postgres container on its first start (docker-compose.yml), for the sharded profile
+CREATE DATABASE book_shard_0;
+CREATE DATABASE book_shard_1;
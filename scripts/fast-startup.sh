@@ -0,0 +1,20 @@
+#!/usr/bin/env bash
+# Builds the AOT-processed jar, extracts it and runs a training start to dump the AppCDS archive.
+# The training run needs the docker-compose postgres to be up, the context is closed right after the refresh.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+OUT=target/fast-startup
+
+./mvnw -B -q -Pfast-startup -DskipTests package
+rm -rf "$OUT"
+java -Djarmode=tools -jar target/book-network-0.0.1-SNAPSHOT.jar extract --destination "$OUT"
+
+java -XX:ArchiveClassesAtExit="$OUT/application.jsa" \
+     -Dspring.aot.enabled=true \
+     -Dspring.context.exit=onRefresh \
+     -jar "$OUT/book-network-0.0.1-SNAPSHOT.jar"
+
+echo "start with:"
+echo "  java -XX:SharedArchiveFile=$OUT/application.jsa -Dspring.aot.enabled=true -jar $OUT/book-network-0.0.1-SNAPSHOT.jar"
@@ -0,0 +1,59 @@
+#!/usr/bin/env bash
+# Measures the time from the JVM launch to the first successful request, for the plain jar and the fast-startup one.
+# usage: scripts/startup-benchmark.sh [runs] ; MAX_TTFR_MS=<ms> makes the script fail when the fast-startup mode is slower
+# run scripts/fast-startup.sh first, the results are appended to target/startup-benchmark.csv
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+RUNS=${1:-5}
+URL=${URL:-http://localhost:8088/api/v1/actuator/health}
+MAX_TTFR_MS=${MAX_TTFR_MS:-0}
+OUT=target/fast-startup
+JAR=book-network-0.0.1-SNAPSHOT.jar
+REPORT=target/startup-benchmark.csv
+
+now_ms() { date +%s%3N; }
+
+measure() {
+  local mode=$1; shift
+  local start end pid
+  start=$(now_ms)
+  java "$@" > "target/startup-$mode.log" 2>&1 &
+  pid=$!
+  until curl -sf -o /dev/null "$URL"; do
+    if ! kill -0 "$pid" 2>/dev/null; then
+      echo "$mode: application exited, see target/startup-$mode.log" >&2
+      exit 1
+    fi
+    sleep 0.02
+  done
+  end=$(now_ms)
+  kill "$pid"
+  wait "$pid" 2>/dev/null || true
+  echo $((end - start))
+}
+
+[ -f "$REPORT" ] || echo "timestamp,mode,run,time_to_first_request_ms" > "$REPORT"
+
+for mode in baseline fast-startup; do
+  total=0
+  for run in $(seq 1 "$RUNS"); do
+    if [ "$mode" = baseline ]; then
+      ms=$(measure "$mode" -jar "target/$JAR")
+    else
+      ms=$(measure "$mode" -XX:SharedArchiveFile="$OUT/application.jsa" -Dspring.aot.enabled=true \
+        -Dapplication.startup.lazy-init.enabled=true -jar "$OUT/$JAR")
+    fi
+    echo "$(date -Iseconds),$mode,$run,$ms" >> "$REPORT"
+    total=$((total + ms))
+  done
+  avg=$((total / RUNS))
+  echo "$mode: avg ${avg} ms to first request over $RUNS runs"
+done
+
+# avg is the fast-startup one here
+if [ "$MAX_TTFR_MS" -gt 0 ] && [ "$avg" -gt "$MAX_TTFR_MS" ]; then
+  echo "startup regression: fast-startup avg ${avg} ms > ${MAX_TTFR_MS} ms" >&2
+  exit 1
+fi
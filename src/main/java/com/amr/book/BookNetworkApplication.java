@@ -5,17 +5,26 @@ import com.amr.book.role.RoleRepository;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaAuditing
 @EnableAsync
+@EnableScheduling
 public class BookNetworkApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(BookNetworkApplication.class, args);
+		SpringApplication app = new SpringApplication(BookNetworkApplication.class);
+		//the environment is not there yet, so the startup recording is switched on with -Dapplication.startup.recording=true
+		//the steps are then served by /actuator/startup
+		if (Boolean.getBoolean("application.startup.recording")) {
+			app.setApplicationStartup(new BufferingApplicationStartup(4096));
+		}
+		app.run(args);
 	}
 
 	@Bean
@@ -0,0 +1,36 @@
+package com.amr.book.account;
+
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("account")
+@RequiredArgsConstructor
+@Tag(name = "Account")
+public class AccountDeletionController {
+
+    private final AccountDeletionService service;
+
+    //the account is disabled at once, the data goes in the background: 202 with the progress
+    @DeleteMapping
+    public ResponseEntity<AccountDeletionResponse> deleteAccount(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.accepted().body(service.requestDeletion(user.getId()));
+    }
+
+    @GetMapping("/deletions/{user-id}")
+    @Secured("ADMIN")
+    public ResponseEntity<AccountDeletionResponse> deletionProgress(@PathVariable("user-id") Integer userId) {
+        AccountDeletionResponse progress = service.progress(userId);
+        return progress == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(progress);
+    }
+}
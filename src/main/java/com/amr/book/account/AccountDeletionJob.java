@@ -0,0 +1,73 @@
+package com.amr.book.account;
+
+import com.amr.book.scheduling.ClusterJobRunner;
+import com.amr.book.scheduling.JobShard;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * works through the pending account deletions one batch at a time, with a pause between the
+ * batches so the deletions never take a noticeable share of the database from the requests.
+ * one node of the cluster runs it, a node taking over continues from the last checkpoint.
+ * a run stops after max-run and the next one resumes from the checkpoint, a heavy account never holds
+ * a scheduler thread for long
+ * */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AccountDeletionJob {
+
+    private final AccountDeletionService service;
+    private final ClusterJobRunner clusterJobRunner;
+
+    @Value("${application.account-deletion.batch-pause:50ms}")
+    private Duration batchPause;
+    @Value("${application.account-deletion.max-run:30s}")
+    private Duration maxRun;
+
+    @Scheduled(fixedDelayString = "${application.account-deletion.interval:10000}")
+    public void scheduledRun() {
+        clusterJobRunner.runSharded("account-deletion", 1, this::run);
+    }
+
+    private void run(JobShard shard) {
+        long deadline = System.nanoTime() + maxRun.toNanos();
+        List<Integer> users = service.pending(100);
+        for (Integer userId : users) {
+            long start = System.currentTimeMillis();
+            int batches = 0;
+            while (shard.isHeld() && service.processBatch(userId)) {
+                if (++batches % 100 == 0) {
+                    log.info("account deletion of user {}: {}", userId, service.progress(userId));
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    log.debug("account deletion of user {} continues in the next run: {}", userId, service.progress(userId));
+                    return;
+                }
+                if (!pause()) {
+                    return;
+                }
+            }
+            if (!shard.isHeld()) {
+                return;
+            }
+            log.info("account of user {} deleted ({} batches) in {} ms", userId, batches, System.currentTimeMillis() - start);
+        }
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(batchPause.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.amr.book.account;
+
+import java.time.OffsetDateTime;
+
+/**
+ * processed = the rows deleted or anonymized so far
+ * */
+public record AccountDeletionResponse(
+        Integer userId,
+        String status,
+        String step,
+        long processed,
+        OffsetDateTime requestedAt,
+        OffsetDateTime updatedAt,
+        OffsetDateTime finishedAt
+) {
+}
@@ -0,0 +1,263 @@
+package com.amr.book.account;
+
+import com.amr.book.book.BookChangedEvent;
+import com.amr.book.common.EntityChange;
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import com.amr.book.user.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * account deletion: the request disables and locks the account at once (no login, the jwt filter
+ * refuses its tokens) and queues it, {@link AccountDeletionJob} then removes or anonymizes what the
+ * user left in small keyset batches, one short transaction each, so no lock is held on the hot tables
+ * for longer than a batch. the checkpoint (step, shard, last id) is written after every batch;
+ * the batches only touch the rows still matching, a batch run again after a crash changes nothing
+ * */
+@Service
+public class AccountDeletionService {
+
+    private static final String DISABLE = "UPDATE _user SET enabled = false, account_locked = true WHERE id = ?";
+    private static final String REQUEST = """
+            INSERT INTO account_deletion (user_id, status, step, shard)
+            VALUES (?, 'PENDING', ?, ?)
+            ON CONFLICT (user_id) DO NOTHING
+            """;
+    private static final String PROGRESS = """
+            SELECT user_id, status, step, shard, last_id, processed, requested_at, updated_at, finished_at
+            FROM account_deletion WHERE user_id = ?
+            """;
+    private static final String PENDING = """
+            SELECT user_id FROM account_deletion WHERE status = 'PENDING'
+            ORDER BY requested_at
+            LIMIT ?
+            """;
+    private static final String CHECKPOINT = """
+            UPDATE account_deletion SET step = ?, shard = ?, last_id = ?, processed = processed + ?, updated_at = now()
+            WHERE user_id = ?
+            """;
+    private static final String FINISH = """
+            UPDATE account_deletion SET status = 'DONE', step = 'DONE', processed = processed + ?,
+                updated_at = now(), finished_at = now()
+            WHERE user_id = ?
+            """;
+
+    private static final String DELETE_TOKENS = """
+            DELETE FROM token WHERE id IN (
+                SELECT id FROM token WHERE user_id = ? AND id > ? ORDER BY id LIMIT ?)
+            RETURNING id
+            """;
+    private static final String DELETE_WAITLIST = """
+            DELETE FROM book_waitlist WHERE id IN (
+                SELECT id FROM book_waitlist WHERE user_id = ? AND id > ? ORDER BY id LIMIT ?)
+            RETURNING id
+            """;
+    private static final String ANONYMIZE_FEEDBACK = """
+            UPDATE feedback SET created_by = 0,
+                last_modified_by = CASE WHEN last_modified_by = ? THEN 0 ELSE last_modified_by END
+            WHERE id IN (
+                SELECT id FROM feedback WHERE created_by = ? AND id > ? ORDER BY id LIMIT ?)
+            RETURNING id
+            """;
+    //%s: book_transaction_history or its archive, both partitioned by created_date
+    private static final String ANONYMIZE_LOANS = """
+            UPDATE %1$s SET user_id = NULL,
+                created_by = CASE WHEN created_by = ? THEN 0 ELSE created_by END,
+                last_modified_by = CASE WHEN last_modified_by = ? THEN 0 ELSE last_modified_by END
+            WHERE (id, created_date) IN (
+                SELECT id, created_date FROM %1$s WHERE user_id = ? AND id > ? ORDER BY id LIMIT ?)
+            RETURNING id
+            """;
+    private static final String OWNED_BOOKS = """
+            SELECT id FROM book WHERE owner_id = ? AND id > ? ORDER BY id LIMIT ?
+            """;
+    private static final String DELETE_BOOKS = """
+            DELETE FROM book WHERE id IN (:ids)
+            RETURNING id, shareable, archived, title, author_name
+            """;
+
+    private static final RowMapper<AccountDeletionResponse> PROGRESS_ROW = (rs, rowNum) -> new AccountDeletionResponse(
+            rs.getInt("user_id"),
+            rs.getString("status"),
+            rs.getString("step"),
+            rs.getLong("processed"),
+            rs.getObject("requested_at", OffsetDateTime.class),
+            rs.getObject("updated_at", OffsetDateTime.class),
+            rs.getObject("finished_at", OffsetDateTime.class));
+
+    private record Checkpoint(AccountDeletionStep step, int shard, long lastId) {
+    }
+
+    //keys: the rows selected by the batch, a batch shorter than the limit ends the shard
+    private record Batch(long rows, long lastId, int keys, List<Long> deletedBooks) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final ShardRouter shardRouter;
+    private final UserRepository userRepository;
+    private final ApplicationEventPublisher publisher;
+    private final int batchSize;
+    private final int booksBatchSize;
+
+    public AccountDeletionService(JdbcTemplate jdbcTemplate,
+                                  NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  ShardRouter shardRouter,
+                                  UserRepository userRepository,
+                                  ApplicationEventPublisher publisher,
+                                  @Value("${application.account-deletion.batch-size:500}") int batchSize,
+                                  @Value("${application.account-deletion.books-batch-size:20}") int booksBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.shardRouter = shardRouter;
+        this.userRepository = userRepository;
+        this.publisher = publisher;
+        this.batchSize = batchSize;
+        this.booksBatchSize = booksBatchSize;
+    }
+
+    @Transactional
+    public AccountDeletionResponse requestDeletion(int userId) {
+        jdbcTemplate.update(DISABLE, userId);
+        jdbcTemplate.update(REQUEST, userId, AccountDeletionStep.TOKENS.name(), ShardRouter.GLOBAL);
+        return progress(userId);
+    }
+
+    /**
+     * @return null when no deletion was asked for that user
+     * */
+    public AccountDeletionResponse progress(int userId) {
+        List<AccountDeletionResponse> rows = jdbcTemplate.query(PROGRESS, PROGRESS_ROW, userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public List<Integer> pending(int limit) {
+        return jdbcTemplate.queryForList(PENDING, Integer.class, limit);
+    }
+
+    /**
+     * runs the next batch of the deletion and writes the checkpoint
+     * @return false once the deletion is done
+     * */
+    public boolean processBatch(int userId) {
+        Checkpoint checkpoint = checkpoint(userId);
+        if (checkpoint == null || checkpoint.step() == AccountDeletionStep.DONE) {
+            return false;
+        }
+        AccountDeletionStep step = checkpoint.step();
+        if (step == AccountDeletionStep.ACCOUNT) {
+            int rows = ShardContext.call(ShardRouter.GLOBAL, () -> transaction.execute(status -> deleteAccount(userId)));
+            jdbcTemplate.update(FINISH, rows, userId);
+            return false;
+        }
+        List<Integer> shards = shardsOf(step, userId);
+        int position = shards.indexOf(checkpoint.shard());
+        //a shard that is no longer there (or the first batch of the step): the step starts again, it skips what is done
+        long lastId = position < 0 ? 0 : checkpoint.lastId();
+        int shard = shards.get(Math.max(position, 0));
+        Batch batch = ShardContext.call(shard, () -> transaction.execute(status -> runBatch(step, userId, lastId)));
+        long processed = batch.rows();
+        if (!batch.deletedBooks().isEmpty()) {
+            processed += deleteBookLeftovers(batch.deletedBooks());
+        }
+        if (batch.keys() == limitOf(step)) {
+            jdbcTemplate.update(CHECKPOINT, step.name(), shard, batch.lastId(), processed, userId);
+        } else if (Math.max(position, 0) + 1 < shards.size()) {
+            jdbcTemplate.update(CHECKPOINT, step.name(), shards.get(Math.max(position, 0) + 1), 0, processed, userId);
+        } else {
+            AccountDeletionStep next = step.next();
+            jdbcTemplate.update(CHECKPOINT, next.name(), shardsOf(next, userId).get(0), 0, processed, userId);
+        }
+        return true;
+    }
+
+    private Batch runBatch(AccountDeletionStep step, int userId, long lastId) {
+        List<Long> ids = switch (step) {
+            case TOKENS -> jdbcTemplate.queryForList(DELETE_TOKENS, Long.class, userId, lastId, batchSize);
+            case WAITLIST -> jdbcTemplate.queryForList(DELETE_WAITLIST, Long.class, userId, lastId, batchSize);
+            case FEEDBACK_GIVEN -> jdbcTemplate.queryForList(ANONYMIZE_FEEDBACK, Long.class,
+                    userId, userId, lastId, batchSize);
+            case LOANS -> jdbcTemplate.queryForList(ANONYMIZE_LOANS.formatted("book_transaction_history"), Long.class,
+                    userId, userId, userId, lastId, batchSize);
+            case ARCHIVED_LOANS -> jdbcTemplate.queryForList(ANONYMIZE_LOANS.formatted("book_transaction_history_archive"),
+                    Long.class, userId, userId, userId, lastId, batchSize);
+            case OWNED_BOOKS -> jdbcTemplate.queryForList(OWNED_BOOKS, Long.class, userId, lastId, booksBatchSize);
+            default -> throw new IllegalStateException("no batch for " + step);
+        };
+        long last = ids.stream().mapToLong(Long::longValue).max().orElse(lastId);
+        if (step == AccountDeletionStep.OWNED_BOOKS && !ids.isEmpty()) {
+            return new Batch(deleteBooks(userId, ids), last, ids.size(), ids);
+        }
+        return new Batch(ids.size(), last, ids.size(), List.of());
+    }
+
+    //the rows pointing to the books first, the events tell the in memory indexes and counters
+    private long deleteBooks(int userId, List<Long> bookIds) {
+        Map<String, Object> ids = Map.of("ids", bookIds);
+        long rows = namedParameterJdbcTemplate.update("DELETE FROM feedback WHERE book_id IN (:ids)", ids);
+        rows += namedParameterJdbcTemplate.update("DELETE FROM book_transaction_history WHERE book_id IN (:ids)", ids);
+        rows += namedParameterJdbcTemplate.update("DELETE FROM book_transaction_history_archive WHERE book_id IN (:ids)", ids);
+        long[] books = {0};
+        namedParameterJdbcTemplate.query(DELETE_BOOKS, ids, (RowCallbackHandler) rs -> {
+            books[0]++;
+            publisher.publishEvent(new BookChangedEvent(rs.getInt("id"), userId, EntityChange.DELETED,
+                    false, false, rs.getBoolean("shareable"), rs.getBoolean("archived"),
+                    null, null, rs.getString("title"), rs.getString("author_name")));
+        });
+        return rows + books[0];
+    }
+
+    //the waitlists and view counts of the books just deleted, on the global database
+    private int deleteBookLeftovers(List<Long> bookIds) {
+        Map<String, Object> ids = Map.of("ids", bookIds);
+        return ShardContext.call(ShardRouter.GLOBAL, () -> transaction.execute(status ->
+                namedParameterJdbcTemplate.update("DELETE FROM book_waitlist WHERE book_id IN (:ids)", ids)
+                        + namedParameterJdbcTemplate.update("DELETE FROM book_view_count WHERE book_id IN (:ids)", ids)));
+    }
+
+    //the tokens asked for since the first step go too, the join rows of the roles go with the entity
+    private int deleteAccount(int userId) {
+        int rows = jdbcTemplate.update("DELETE FROM token WHERE user_id = ?", userId);
+        rows += jdbcTemplate.update("DELETE FROM user_stats WHERE user_id = ?", userId);
+        if (userRepository.existsById(userId)) {
+            userRepository.deleteById(userId);
+            rows++;
+        }
+        return rows;
+    }
+
+    private Checkpoint checkpoint(int userId) {
+        List<Checkpoint> rows = jdbcTemplate.query("SELECT step, shard, last_id FROM account_deletion WHERE user_id = ?",
+                (rs, rowNum) -> new Checkpoint(AccountDeletionStep.valueOf(rs.getString("step")),
+                        rs.getInt("shard"), rs.getLong("last_id")), userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private List<Integer> shardsOf(AccountDeletionStep step, int userId) {
+        return switch (step.scope()) {
+            case GLOBAL -> List.of(ShardRouter.GLOBAL);
+            case OWNER_SHARD -> List.of(shardRouter.shardOfOwner(userId));
+            case ALL_SHARDS -> shardRouter.shards();
+        };
+    }
+
+    private int limitOf(AccountDeletionStep step) {
+        return step == AccountDeletionStep.OWNED_BOOKS ? booksBatchSize : batchSize;
+    }
+}
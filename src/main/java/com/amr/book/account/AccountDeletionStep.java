@@ -0,0 +1,39 @@
+package com.amr.book.account;
+
+/**
+ * the steps of an account deletion in their order, each one run in keyset batches
+ * on the databases of its scope
+ * */
+enum AccountDeletionStep {
+    TOKENS(Scope.GLOBAL),
+    WAITLIST(Scope.GLOBAL),
+    //the feedbacks stay (the ratings of the books), their author becomes 0 = deleted account
+    FEEDBACK_GIVEN(Scope.ALL_SHARDS),
+    //the loans stay (the history of the books), without borrower
+    LOANS(Scope.ALL_SHARDS),
+    ARCHIVED_LOANS(Scope.ALL_SHARDS),
+    //with their feedbacks, loans, waitlists and view counts
+    OWNED_BOOKS(Scope.OWNER_SHARD),
+    ACCOUNT(Scope.GLOBAL),
+    DONE(Scope.GLOBAL);
+
+    enum Scope {
+        GLOBAL,
+        OWNER_SHARD,
+        ALL_SHARDS
+    }
+
+    private final Scope scope;
+
+    AccountDeletionStep(Scope scope) {
+        this.scope = scope;
+    }
+
+    Scope scope() {
+        return scope;
+    }
+
+    AccountDeletionStep next() {
+        return this == DONE ? DONE : values()[ordinal() + 1];
+    }
+}
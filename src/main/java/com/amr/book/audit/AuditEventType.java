@@ -0,0 +1,9 @@
+package com.amr.book.audit;
+
+public enum AuditEventType {
+    LOGIN_SUCCESS,
+    LOGIN_FAILURE,
+    ACCOUNT_ACTIVATED,
+    ACTIVATION_FAILED,
+    TOKEN_REJECTED
+}
@@ -0,0 +1,150 @@
+package com.amr.book.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * append only audit file: the lines go through a direct buffer to a FileChannel, forced to disk
+ * every sync interval. the file is rotated (renamed with its closing time) when it reaches the
+ * maximum size or age, only the most recent rotated files are kept. used by the consumer thread only
+ * */
+final class AuditFileWriter implements Closeable {
+
+    private static final DateTimeFormatter ROTATED = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path directory;
+    private final String baseName;
+    private final long maxFileSize;
+    private final long maxFileAgeMillis;
+    private final int maxFiles;
+    private final long syncIntervalMillis;
+    private final ByteBuffer buffer;
+
+    private FileChannel channel;
+    private long size;
+    private long openedAt;
+    private long syncedAt;
+    private boolean unsynced;
+
+    AuditFileWriter(Path directory, String baseName, long maxFileSize, long maxFileAgeMillis,
+                    int maxFiles, long syncIntervalMillis, int bufferSize) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.maxFileSize = maxFileSize;
+        this.maxFileAgeMillis = maxFileAgeMillis;
+        this.maxFiles = maxFiles;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void append(byte[] line) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        if (size + buffer.position() + line.length > maxFileSize && size + buffer.position() > 0) {
+            rotate();
+        }
+        if (line.length > buffer.remaining()) {
+            flush();
+        }
+        if (line.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(line));
+        } else {
+            buffer.put(line);
+        }
+    }
+
+    //the buffered lines to the file (the page cache), not forced to disk
+    void flush() throws IOException {
+        if (channel == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * forces the file to disk once the sync interval is over, rotates it once too old
+     * */
+    void tick(long now) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (unsynced && now - syncedAt >= syncIntervalMillis) {
+            flush();
+            channel.force(false);
+            syncedAt = now;
+            unsynced = false;
+        }
+        if (size > 0 && now - openedAt >= maxFileAgeMillis) {
+            rotate();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            channel.force(true);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            size += channel.write(bytes);
+        }
+        unsynced = true;
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        channel = FileChannel.open(current(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        openedAt = System.currentTimeMillis();
+        syncedAt = openedAt;
+    }
+
+    private void rotate() throws IOException {
+        close();
+        Files.move(current(), directory.resolve(baseName + "-" + LocalDateTime.now().format(ROTATED) + ".log"));
+        deleteOldFiles();
+        open();
+    }
+
+    //the rotated names sort by time
+    private void deleteOldFiles() throws IOException {
+        List<Path> rotated = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + "-*.log")) {
+            files.forEach(rotated::add);
+        }
+        if (rotated.size() <= maxFiles) {
+            return;
+        }
+        Collections.sort(rotated);
+        for (Path old : rotated.subList(0, rotated.size() - maxFiles)) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private Path current() {
+        return directory.resolve(baseName + ".log");
+    }
+}
@@ -0,0 +1,11 @@
+package com.amr.book.audit;
+
+/**
+ * what a request does when the audit ring buffer is full (the file writer is behind)
+ * */
+public enum AuditOverflowPolicy {
+    //the event is dropped and counted, the request never waits
+    DROP,
+    //the request waits for a free slot up to the block timeout, then the event is dropped
+    BLOCK
+}
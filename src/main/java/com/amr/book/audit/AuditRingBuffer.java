@@ -0,0 +1,83 @@
+package com.amr.book.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded multi producer, single consumer ring of preallocated slots, no lock:
+ * a producer claims the next sequence with a CAS, fills the slot and publishes it by writing
+ * the sequence into the slot, the consumer reads the slots in sequence order once published
+ * */
+final class AuditRingBuffer {
+
+    static final class Slot {
+        //the sequence published in this slot, read by the consumer
+        private volatile long sequence = -1;
+        long timestamp;
+        AuditEventType type;
+        String principal;
+        String remoteAddress;
+        String detail;
+
+        void clear() {
+            principal = null;
+            remoteAddress = null;
+            detail = null;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    //the last sequence the consumer is done with, its slot can be claimed again
+    private volatile long consumed = -1;
+
+    AuditRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * @return the claimed sequence, -1 when the ring is full
+     * */
+    long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - consumed > slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    Slot slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        slot(sequence).sequence = sequence;
+    }
+
+    /**
+     * consumer side
+     * @return the slot when that sequence is published, null otherwise
+     * */
+    Slot poll(long sequence) {
+        Slot slot = slot(sequence);
+        return slot.sequence == sequence ? slot : null;
+    }
+
+    void release(long sequence) {
+        consumed = sequence;
+    }
+
+    long backlog() {
+        return Math.max(claimed.get() - consumed, 0);
+    }
+}
@@ -0,0 +1,215 @@
+package com.amr.book.audit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * compliance log of the logins, activations and rejected tokens, kept off the request threads:
+ * {@link #record} fills a preallocated slot of a lock free ring and returns, one consumer thread
+ * writes the events in batches as json lines to a rotated local file (see {@link AuditFileWriter}).
+ * when the ring is full the overflow policy decides between dropping and waiting a little.
+ * metrics: security.audit.written, security.audit.dropped (by reason), security.audit.backlog
+ * and security.audit.lag (from the event to its write)
+ * */
+@Slf4j
+@Component
+public class SecurityAuditLog {
+
+    private final AuditRingBuffer ring;
+    private final AuditFileWriter writer;
+    private final AuditOverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final int batchSize;
+    private final long idleWaitNanos;
+
+    private final Counter written;
+    private final Counter droppedOverflow;
+    private final Counter droppedWriteError;
+    private final Timer lag;
+
+    private Thread consumer;
+    private volatile boolean running;
+
+    public SecurityAuditLog(MeterRegistry meterRegistry,
+                            @Value("${application.security-audit.directory:logs/audit}") Path directory,
+                            @Value("${application.security-audit.file-name:security-audit}") String fileName,
+                            @Value("${application.security-audit.ring-size:8192}") int ringSize,
+                            @Value("${application.security-audit.batch-size:512}") int batchSize,
+                            @Value("${application.security-audit.overflow-policy:DROP}") AuditOverflowPolicy overflowPolicy,
+                            @Value("${application.security-audit.block-timeout:10ms}") Duration blockTimeout,
+                            @Value("${application.security-audit.max-file-size:64MB}") DataSize maxFileSize,
+                            @Value("${application.security-audit.rotation-interval:1d}") Duration rotationInterval,
+                            @Value("${application.security-audit.max-files:30}") int maxFiles,
+                            @Value("${application.security-audit.fsync-interval:1s}") Duration fsyncInterval,
+                            @Value("${application.security-audit.idle-wait:1ms}") Duration idleWait) {
+        this.ring = new AuditRingBuffer(ringSize);
+        this.writer = new AuditFileWriter(directory, fileName, maxFileSize.toBytes(), rotationInterval.toMillis(),
+                maxFiles, fsyncInterval.toMillis(), 64 * 1024);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+        this.batchSize = batchSize;
+        this.idleWaitNanos = idleWait.toNanos();
+        this.written = Counter.builder("security.audit.written")
+                .description("security audit events written to the file")
+                .register(meterRegistry);
+        this.droppedOverflow = dropped(meterRegistry, "overflow");
+        this.droppedWriteError = dropped(meterRegistry, "write-error");
+        this.lag = Timer.builder("security.audit.lag")
+                .description("time from a security audit event to its write to the file")
+                .register(meterRegistry);
+        Gauge.builder("security.audit.backlog", ring, AuditRingBuffer::backlog)
+                .description("security audit events waiting in the ring buffer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * the remote address is the one of the current http request, if any
+     * */
+    public void record(AuditEventType type, String principal, String detail) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        String remoteAddress = attributes instanceof ServletRequestAttributes servlet
+                ? servlet.getRequest().getRemoteAddr()
+                : null;
+        record(type, principal, remoteAddress, detail);
+    }
+
+    public void record(AuditEventType type, String principal, String remoteAddress, String detail) {
+        long sequence = ring.tryClaim();
+        if (sequence < 0 && overflowPolicy == AuditOverflowPolicy.BLOCK) {
+            long deadline = System.nanoTime() + blockTimeoutNanos;
+            while (sequence < 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(50_000);
+                sequence = ring.tryClaim();
+            }
+        }
+        if (sequence < 0) {
+            droppedOverflow.increment();
+            return;
+        }
+        AuditRingBuffer.Slot slot = ring.slot(sequence);
+        slot.timestamp = System.currentTimeMillis();
+        slot.type = type;
+        slot.principal = principal;
+        slot.remoteAddress = remoteAddress;
+        slot.detail = detail;
+        ring.publish(sequence);
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        consumer = new Thread(this::consume, "security-audit-writer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    //the events already in the ring are written before the file is closed
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(consumer);
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void consume() {
+        long next = 0;
+        StringBuilder line = new StringBuilder(256);
+        while (running || ring.poll(next) != null) {
+            int batch = 0;
+            long lastTimestamp = 0;
+            AuditRingBuffer.Slot slot;
+            while (batch < batchSize && (slot = ring.poll(next)) != null) {
+                lastTimestamp = slot.timestamp;
+                format(slot, line);
+                slot.clear();
+                ring.release(next++);
+                batch++;
+                try {
+                    writer.append(line.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException | RuntimeException e) {
+                    droppedWriteError.increment();
+                    log.error("security audit event not written: {}", e.getMessage());
+                }
+            }
+            try {
+                if (batch > 0) {
+                    writer.flush();
+                    written.increment(batch);
+                    lag.record(Math.max(System.currentTimeMillis() - lastTimestamp, 0), TimeUnit.MILLISECONDS);
+                }
+                writer.tick(System.currentTimeMillis());
+            } catch (IOException | RuntimeException e) {
+                log.error("security audit file not written: {}", e.getMessage());
+            }
+            if (batch == 0) {
+                LockSupport.parkNanos(idleWaitNanos);
+            }
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("security audit file not closed: {}", e.getMessage());
+        }
+    }
+
+    private static void format(AuditRingBuffer.Slot slot, StringBuilder line) {
+        line.setLength(0);
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(slot.timestamp)).append('"');
+        line.append(",\"type\":\"").append(slot.type).append('"');
+        appendField(line, "principal", slot.principal);
+        appendField(line, "remoteAddress", slot.remoteAddress);
+        appendField(line, "detail", slot.detail);
+        line.append("}\n");
+    }
+
+    private static void appendField(StringBuilder line, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        line.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    private static Counter dropped(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("security.audit.dropped")
+                .description("security audit events lost")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,59 @@
+package com.amr.book.auth;
+
+import com.amr.book.common.IntIntHashMap;
+
+import java.time.Duration;
+
+/**
+ * at most one activation email per user and cooldown, in memory.
+ * the users are spread over lock stripes so concurrent resends of different users do not wait on each other.
+ * every stripe keeps two generations of send times and drops the older one each cooldown,
+ * so the memory only holds the users who asked for an email recently
+ * */
+class ActivationResendThrottle {
+
+    private static final int NEVER = -1;
+
+    private final Stripe[] stripes;
+    private final long cooldownSeconds;
+    private final long startNanos = System.nanoTime();
+
+    ActivationResendThrottle(Duration cooldown, int stripeCount) {
+        this.cooldownSeconds = Math.max(cooldown.toSeconds(), 1);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return false when an email was already sent to this user within the cooldown
+     * */
+    boolean tryAcquire(int userId) {
+        Stripe stripe = stripes[Math.floorMod(userId * 0x9E3779B9, stripes.length)];
+        int now = (int) ((System.nanoTime() - startNanos) / 1_000_000_000L);
+        synchronized (stripe) {
+            if (now - stripe.rotatedAt >= cooldownSeconds) {
+                //everything in the previous generation is older than the cooldown
+                stripe.previous = now - stripe.rotatedAt >= 2 * cooldownSeconds ? new IntIntHashMap(16, NEVER) : stripe.current;
+                stripe.current = new IntIntHashMap(16, NEVER);
+                stripe.rotatedAt = now;
+            }
+            int lastSent = stripe.current.get(userId);
+            if (lastSent == NEVER) {
+                lastSent = stripe.previous.get(userId);
+            }
+            if (lastSent != NEVER && now - lastSent < cooldownSeconds) {
+                return false;
+            }
+            stripe.current.put(userId, now);
+            return true;
+        }
+    }
+
+    private static final class Stripe {
+        private IntIntHashMap current = new IntIntHashMap(16, NEVER);
+        private IntIntHashMap previous = new IntIntHashMap(16, NEVER);
+        private int rotatedAt;
+    }
+}
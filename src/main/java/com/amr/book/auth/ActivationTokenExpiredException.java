@@ -0,0 +1,11 @@
+package com.amr.book.auth;
+
+/**
+ * the activation code is expired, a new one was sent (or had been sent recently)
+ * */
+public class ActivationTokenExpiredException extends RuntimeException {
+
+    public ActivationTokenExpiredException(String message) {
+        super(message);
+    }
+}
@@ -31,5 +31,11 @@ public class AuthenticationController {
     public void confirm(@RequestParam String token) throws MessagingException {
         service.activateAccount(token);
     }
+    @PostMapping("/resend-activation")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ResponseEntity<?> resendActivation(@RequestBody @Valid ResendActivationRequest request) throws MessagingException {
+        service.resendActivation(request);
+        return ResponseEntity.accepted().build();
+    }
 
 }
@@ -1,5 +1,7 @@
 package com.amr.book.auth;
 
+import com.amr.book.audit.AuditEventType;
+import com.amr.book.audit.SecurityAuditLog;
 import com.amr.book.email.EmailService;
 import com.amr.book.email.EmailTemplate;
 import com.amr.book.role.RoleRepository;
@@ -8,18 +10,22 @@ import com.amr.book.user.Token;
 import com.amr.book.user.TokenRepository;
 import com.amr.book.user.User;
 import com.amr.book.user.UserRepository;
+import jakarta.annotation.PostConstruct;
 import jakarta.mail.MessagingException;
 import lombok.RequiredArgsConstructor;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
@@ -33,12 +39,33 @@ public class AuthenticationService {
     //after declaration of AuthenticationManager we will jump to BeansConfig
     private final AuthenticationManager authenticationManager;
     private final RoleRepository roleRepository;
+    //lazy proxy so the mail stack is only created when the first email is sent (see StartupConfig)
+    @Lazy
     private final EmailService emailService;
     private final TokenRepository tokenRepository;
+    private final SecurityAuditLog auditLog;
 
     @Value("${application.mailing.frontend.activation-url}")
     private String activationUrl;
+    @Value("${application.activation.auto-resend-cooldown:15m}")
+    private Duration autoResendCooldown;
+    @Value("${application.activation.resend-cooldown:60s}")
+    private Duration resendCooldown;
+    @Value("${application.activation.throttle-stripes:64}")
+    private int throttleStripes;
+
+    //the resends caused by an expired code and the ones asked on /auth/resend-activation have their own cooldown
+    private ActivationResendThrottle autoResends;
+    private ActivationResendThrottle explicitResends;
+
+    @PostConstruct
+    void initResendThrottles() {
+        autoResends = new ActivationResendThrottle(autoResendCooldown, throttleStripes);
+        explicitResends = new ActivationResendThrottle(resendCooldown, throttleStripes);
+    }
 
+    //one transaction for the role lookup and the user and token inserts
+    @Transactional
     public void register(RegistrationRequest request) throws MessagingException {
         var userRole = roleRepository.findByName("USER")
                 // todo - better exception handling
@@ -55,19 +82,39 @@ public class AuthenticationService {
                 .roles(List.of(userRole))
                 .build();
         userRepository.save(user);
+        autoResends.tryAcquire(user.getId());
+        explicitResends.tryAcquire(user.getId());
         sendValidationEmail(user);
 
     }
 
+    //no answer about the email existing or not, the same 202 for everybody
+    @Transactional
+    public void resendActivation(ResendActivationRequest request) throws MessagingException {
+        var user = userRepository.findByEmail(request.getEmail()).orElse(null);
+        if (user == null || user.isEnabled() || !explicitResends.tryAcquire(user.getId())) {
+            return;
+        }
+        resendValidationEmail(user);
+    }
 
     private void sendValidationEmail(User user) throws MessagingException {
-
-        var newToken=generateAndSaveActivationToken(user);
+        //the code still valid is sent again instead of a new row per call
+        var activationCode = tokenRepository
+                .findFirstByUserIdAndValidatedAtIsNullAndExpiresAtAfterOrderByCreatedAtDesc(user.getId(), LocalDateTime.now())
+                .map(Token::getToken)
+                .orElseGet(() -> generateAndSaveActivationToken(user));
         emailService.sendEmail(user.getEmail(), user.fullName(),
-                EmailTemplate.ACTIVATE_ACCOUNT,activationUrl,newToken,"Account Activation");
+                EmailTemplate.ACTIVATE_ACCOUNT,activationUrl,activationCode,"Account Activation");
 
     }
 
+    //the expired codes of the user are dropped, so the token table grows with the users, not with the calls
+    private void resendValidationEmail(User user) throws MessagingException {
+        tokenRepository.deleteExpiredByUserId(user.getId(), LocalDateTime.now());
+        sendValidationEmail(user);
+    }
+
     private String generateAndSaveActivationToken(User user) {
         //generate token
         String generateToken=generateActivationCode(6);
@@ -99,13 +146,19 @@ public class AuthenticationService {
         //this method will take care of whole authentication process if the username and password are correct
         //other wise it will throw an exception
         //will use the bean which configured in the BeansConfig
-        var auth = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(
-                        request.getEmail(),
-                        request.getPassword()
-                )
+        Authentication auth;
+        try {
+            auth = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(
+                            request.getEmail(),
+                            request.getPassword()
+                    )
 
-        );
+            );
+        } catch (AuthenticationException e) {
+            auditLog.record(AuditEventType.LOGIN_FAILURE, request.getEmail(), e.getClass().getSimpleName());
+            throw e;
+        }
         var claims = new HashMap<String,Object>();
         /*
         so i will need my user so i don't need to fetch it again from the database
@@ -117,27 +170,37 @@ public class AuthenticationService {
         var user = ((User)auth.getPrincipal());
         claims.put("fullName",user.fullName());
         var jwtToken = jwtService.generateToken(claims,user);
+        auditLog.record(AuditEventType.LOGIN_SUCCESS, user.getUsername(), null);
      return AuthenticationResponse.builder().token(jwtToken).build();
     }
 
-    @Transactional
+    //the expired code exception keeps the transaction, the new code must be saved
+    @Transactional(noRollbackFor = ActivationTokenExpiredException.class)
     public void activateAccount(String token) throws MessagingException {
         Token savedToken = tokenRepository.findByToken(token)
                 //todo exception has to be defined
-                .orElseThrow(()->new RuntimeException("invalid token")) ;
+                .orElseThrow(()->{
+                    auditLog.record(AuditEventType.ACTIVATION_FAILED, null, "invalid token");
+                    return new RuntimeException("invalid token");
+                }) ;
 
         //if the token already expired
         if(LocalDateTime.now().isAfter(savedToken.getExpiresAt())){
-            sendValidationEmail(savedToken.getUser());
-            throw new RuntimeException("Activation token has expired. A new token has been sent to same email address ");
+            var user = savedToken.getUser();
+            //one email per user and cooldown however often the expired code is sent
+            if (!user.isEnabled() && autoResends.tryAcquire(user.getId())) {
+                resendValidationEmail(user);
+            }
+            auditLog.record(AuditEventType.ACTIVATION_FAILED, user.getUsername(), "expired token");
+            throw new ActivationTokenExpiredException("Activation token has expired. A new token has been sent to same email address ");
         }else {
-            var user =userRepository.findById(savedToken.getUser().getId()).orElseThrow(
-                    ()-> new UsernameNotFoundException("user not found")
-            );
+            //the user came with the token, no second lookup
+            var user = savedToken.getUser();
             user.setEnabled(true);
             userRepository.save(user);
             savedToken.setValidatedAt(LocalDateTime.now());
             tokenRepository.save(savedToken);
+            auditLog.record(AuditEventType.ACCOUNT_ACTIVATED, user.getUsername(), null);
         }
     }
 }
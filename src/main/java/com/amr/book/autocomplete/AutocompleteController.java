@@ -0,0 +1,28 @@
+package com.amr.book.autocomplete;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("autocomplete")
+@RequiredArgsConstructor
+@Tag(name = "Autocomplete")
+public class AutocompleteController {
+
+    private final AutocompleteService service;
+
+    @GetMapping("/books")
+    public ResponseEntity<List<SuggestionResponse>> suggestBooks(
+            @RequestParam(name = "prefix") String prefix,
+            @RequestParam(name = "size", defaultValue = "8", required = false) int size
+    ) {
+        return ResponseEntity.ok(service.suggest(prefix, size));
+    }
+}
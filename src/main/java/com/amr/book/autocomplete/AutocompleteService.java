@@ -0,0 +1,239 @@
+package com.amr.book.autocomplete;
+
+import com.amr.book.book.BookChangedEvent;
+import com.amr.book.common.IntIntHashMap;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * title and author suggestions of the shared, not archived books, weighted by the books and their views.
+ * the reads go to an immutable {@link SuggestionIndex} plus a small delta of the book changes committed
+ * since it was built, without any lock. the delta is merged into a new index in the background and the
+ * result swapped in at once; the index is read again from the database at startup and every night
+ * (views, and anything the events missed)
+ * */
+@Slf4j
+@Service
+public class AutocompleteService {
+
+    private static final String BOOKS = """
+            SELECT id, title, author_name FROM book
+            WHERE shareable AND NOT archived
+            """;
+    private static final String VIEWS = "SELECT book_id, LEAST(views, 2147483647) AS views FROM book_view_count";
+
+    private final ShardTemplate shardTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int maxSize;
+
+    private volatile State state = new State(SuggestionIndex.EMPTY, Map.of(), new ConcurrentHashMap<>());
+    //one build at a time, the events keep going to the active delta meanwhile
+    private final Object buildLock = new Object();
+
+    public AutocompleteService(ShardTemplate shardTemplate,
+                               DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${application.autocomplete.fetch-size:5000}") int fetchSize,
+                               @Value("${application.autocomplete.max-size:10}") int maxSize) {
+        this.shardTemplate = shardTemplate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxSize = maxSize;
+    }
+
+    public List<SuggestionResponse> suggest(String prefix, int size) {
+        String key = SuggestionIndex.normalize(prefix);
+        int limit = Math.min(Math.max(size, 1), maxSize);
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        State current = state;
+        SuggestionIndex index = current.index();
+        List<SuggestionIndex.Entry> found = new ArrayList<>(limit);
+        Set<String> seen = new HashSet<>();
+        index.walk(key, entry -> {
+            SuggestionIndex.Entry suggestion = new SuggestionIndex.Entry(index.kind(entry), index.key(entry),
+                    index.text(entry), index.books(entry), index.weight(entry));
+            seen.add(id(suggestion.kind(), suggestion.key()));
+            suggestion = current.withDelta(suggestion);
+            if (suggestion.books() > 0) {
+                found.add(suggestion);
+            }
+            return found.size() < limit;
+        });
+        //the delta entries not met above, added to the index entry of the same text when there is one
+        current.forEachDelta(delta -> {
+            if (seen.add(id(delta.kind(), delta.key())) && matches(delta.key(), key)) {
+                int entry = index.find(delta.kind(), delta.key());
+                SuggestionIndex.Entry suggestion = entry < 0 ? current.withDelta(
+                        new SuggestionIndex.Entry(delta.kind(), delta.key(), delta.text(), 0, 0))
+                        : current.withDelta(new SuggestionIndex.Entry(delta.kind(), delta.key(), index.text(entry),
+                        index.books(entry), index.weight(entry)));
+                if (suggestion.books() > 0) {
+                    found.add(suggestion);
+                }
+            }
+        });
+        return found.stream()
+                .sorted(Comparator.comparingLong(SuggestionIndex.Entry::weight).reversed()
+                        .thenComparing(SuggestionIndex.Entry::key))
+                .limit(limit)
+                .map(entry -> new SuggestionResponse(entry.text(), entry.kind(), entry.books()))
+                .toList();
+    }
+
+    @TransactionalEventListener
+    public void onBookChanged(BookChangedEvent event) {
+        boolean visible = event.shareable() && !event.archived();
+        boolean wasVisible = event.previousShareable() && !event.previousArchived();
+        if (visible == wasVisible && (!visible
+                || Objects.equals(event.title(), event.previousTitle())
+                && Objects.equals(event.authorName(), event.previousAuthorName()))) {
+            return;
+        }
+        synchronized (this) {
+            Map<String, SuggestionIndex.Entry> delta = state.active();
+            if (wasVisible) {
+                addDelta(delta, SuggestionKind.TITLE, event.previousTitle(), -1);
+                addDelta(delta, SuggestionKind.AUTHOR, event.previousAuthorName(), -1);
+            }
+            if (visible) {
+                addDelta(delta, SuggestionKind.TITLE, event.title(), 1);
+                addDelta(delta, SuggestionKind.AUTHOR, event.authorName(), 1);
+            }
+        }
+    }
+
+    /**
+     * a new index = the current one plus the delta, nothing read from the database
+     * */
+    @Scheduled(fixedDelayString = "${application.autocomplete.merge-interval:30000}")
+    public void mergeDelta() {
+        synchronized (buildLock) {
+            if (state.active().isEmpty() && state.frozen().isEmpty()) {
+                return;
+            }
+            State frozen = freeze();
+            SuggestionIndex.Builder builder = new SuggestionIndex.Builder().addAll(frozen.index());
+            frozen.frozen().values().forEach(entry ->
+                    builder.add(entry.kind(), entry.key(), entry.text(), entry.books(), entry.weight()));
+            swap(builder.build());
+        }
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAtStartup() {
+        rebuild();
+    }
+
+    /**
+     * the index read again from the database. a change committed while the books are read can be counted
+     * twice (by the read and by the delta) until the next rebuild, the suggestion stays visible meanwhile
+     * */
+    @Scheduled(cron = "${application.autocomplete.rebuild-cron:0 50 4 * * *}")
+    public void rebuild() {
+        synchronized (buildLock) {
+            long start = System.currentTimeMillis();
+            freeze();
+            //book_view_count is on the global database, the books may be on the shards
+            IntIntHashMap views = new IntIntHashMap(1024, 0);
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(VIEWS,
+                    (RowCallbackHandler) rs -> views.put(rs.getInt("book_id"), rs.getInt("views"))));
+            SuggestionIndex.Builder builder = new SuggestionIndex.Builder();
+            shardTemplate.scatter(shard -> readOnlyTransaction.execute(status -> readBooks(views)))
+                    .forEach(builder::addAll);
+            SuggestionIndex index = builder.build();
+            swap(index);
+            log.info("autocomplete index built in {} ms: {} suggestions, {} bytes",
+                    System.currentTimeMillis() - start, index.size(), index.sizeInBytes());
+        }
+    }
+
+    private SuggestionIndex.Builder readBooks(IntIntHashMap views) {
+        SuggestionIndex.Builder builder = new SuggestionIndex.Builder();
+        jdbcTemplate.query(BOOKS, (RowCallbackHandler) rs -> {
+            //a book weighs 1 plus its views
+            long weight = 1L + views.get(rs.getInt("id"));
+            builder.add(SuggestionKind.TITLE, rs.getString("title"), 1, weight);
+            builder.add(SuggestionKind.AUTHOR, rs.getString("author_name"), 1, weight);
+        });
+        return builder;
+    }
+
+    //the active delta joins the frozen one (left by a failed build), read along the index until the new index replaces both
+    private synchronized State freeze() {
+        Map<String, SuggestionIndex.Entry> frozen = new HashMap<>(state.frozen());
+        state.active().forEach((id, entry) -> frozen.merge(id, entry, SuggestionIndex.Entry::plus));
+        state = new State(state.index(), frozen, new ConcurrentHashMap<>());
+        return state;
+    }
+
+    private synchronized void swap(SuggestionIndex index) {
+        state = new State(index, Map.of(), state.active());
+    }
+
+    private static void addDelta(Map<String, SuggestionIndex.Entry> delta, SuggestionKind kind, String text, int books) {
+        String key = SuggestionIndex.normalize(text);
+        if (!key.isEmpty()) {
+            delta.merge(id(kind, key), new SuggestionIndex.Entry(kind, key, text.strip(), books, books),
+                    SuggestionIndex.Entry::plus);
+        }
+    }
+
+    //a word of the text starts with the prefix
+    private static boolean matches(String key, String prefix) {
+        return key.startsWith(prefix) || key.contains(" " + prefix);
+    }
+
+    private static String id(SuggestionKind kind, String key) {
+        return kind.ordinal() + key;
+    }
+
+    private record State(SuggestionIndex index,
+                         Map<String, SuggestionIndex.Entry> frozen,
+                         ConcurrentHashMap<String, SuggestionIndex.Entry> active) {
+
+        //the books and weights the deltas add to (or take from) the entry
+        SuggestionIndex.Entry withDelta(SuggestionIndex.Entry entry) {
+            String id = id(entry.kind(), entry.key());
+            SuggestionIndex.Entry frozenDelta = frozen.get(id);
+            SuggestionIndex.Entry activeDelta = active.get(id);
+            if (frozenDelta != null) {
+                entry = entry.plus(frozenDelta);
+            }
+            return activeDelta == null ? entry : entry.plus(activeDelta);
+        }
+
+        void forEachDelta(Consumer<SuggestionIndex.Entry> action) {
+            frozen.values().forEach(action);
+            active.values().forEach(action);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.amr.book.autocomplete;
+
+import com.amr.book.common.IntIntHashMap;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * immutable suggestion index packed into a few arrays, no object per suggestion:
+ * the normalized texts one after the other in one char array, and the start of every word of them
+ * sorted by the text that follows (a suffix array of the word starts, so "pot" finds "harry potter").
+ * a prefix is a range of that array found by binary search, a segment tree of the weights over it
+ * gives the heaviest suggestions of the range first in O(k log n) whatever the size of the range
+ * */
+final class SuggestionIndex {
+
+    static final SuggestionIndex EMPTY = new Builder().build();
+
+    private static final SuggestionKind[] KINDS = SuggestionKind.values();
+
+    interface Visitor {
+        /**
+         * @return false to stop the walk
+         * */
+        boolean visit(int entry);
+    }
+
+    //entry i is keys[keyStarts[i], keyStarts[i + 1]), its display text is texts[textStarts[i], textStarts[i + 1])
+    private final char[] keys;
+    private final int[] keyStarts;
+    private final char[] texts;
+    private final int[] textStarts;
+    private final byte[] kinds;
+    private final int[] books;
+    private final long[] weights;
+    //offsets of the word starts in keys, sorted by the suffix up to the end of their entry
+    private final int[] positions;
+    private final int[] positionEntries;
+    //tree[node] = the position of the heaviest entry under the node, -1 for the padding leaves
+    private final int[] tree;
+    private final int leaves;
+
+    private SuggestionIndex(char[] keys, int[] keyStarts, char[] texts, int[] textStarts, byte[] kinds,
+                            int[] books, long[] weights, int[] positions, int[] positionEntries) {
+        this.keys = keys;
+        this.keyStarts = keyStarts;
+        this.texts = texts;
+        this.textStarts = textStarts;
+        this.kinds = kinds;
+        this.books = books;
+        this.weights = weights;
+        this.positions = positions;
+        this.positionEntries = positionEntries;
+        this.leaves = Integer.highestOneBit(Math.max(positions.length, 1) * 2 - 1);
+        this.tree = new int[leaves * 2];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < positions.length; i++) {
+            tree[leaves + i] = i;
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            tree[node] = heavier(tree[node * 2], tree[node * 2 + 1]);
+        }
+    }
+
+    int size() {
+        return books.length;
+    }
+
+    SuggestionKind kind(int entry) {
+        return KINDS[kinds[entry]];
+    }
+
+    String key(int entry) {
+        return new String(keys, keyStarts[entry], keyStarts[entry + 1] - keyStarts[entry]);
+    }
+
+    String text(int entry) {
+        return new String(texts, textStarts[entry], textStarts[entry + 1] - textStarts[entry]);
+    }
+
+    int books(int entry) {
+        return books[entry];
+    }
+
+    long weight(int entry) {
+        return weights[entry];
+    }
+
+    long sizeInBytes() {
+        return keys.length * 2L + texts.length * 2L + kinds.length
+                + (keyStarts.length + textStarts.length + books.length + positions.length
+                + positionEntries.length + tree.length) * 4L + weights.length * 8L;
+    }
+
+    /**
+     * visits the entries with a word starting with the normalized prefix, heaviest first, each one once
+     * */
+    void walk(String prefix, Visitor visitor) {
+        int from = lowerBound(prefix, false);
+        int to = lowerBound(prefix, true);
+        if (from >= to) {
+            return;
+        }
+        PriorityQueue<Integer> nodes = new PriorityQueue<>(
+                Comparator.comparingLong((Integer node) -> weights[positionEntries[tree[node]]]).reversed());
+        //the nodes covering [from, to) exactly
+        for (int left = from + leaves, right = to + leaves; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                nodes.add(left++);
+            }
+            if ((right & 1) == 1) {
+                nodes.add(--right);
+            }
+        }
+        IntIntHashMap visited = new IntIntHashMap(16, 0);
+        while (!nodes.isEmpty()) {
+            int node = nodes.poll();
+            if (node >= leaves) {
+                int entry = positionEntries[tree[node]];
+                //an entry with the prefix at two word starts comes twice
+                if (!visited.containsKey(entry)) {
+                    visited.put(entry, 1);
+                    if (!visitor.visit(entry)) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            for (int child = node * 2; child <= node * 2 + 1; child++) {
+                if (tree[child] >= 0) {
+                    nodes.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the entry of that exact normalized text, -1 when there is none
+     * */
+    int find(SuggestionKind kind, String key) {
+        //the suffixes equal to the key sort before the longer ones starting with it
+        for (int i = lowerBound(key, false); i < positions.length; i++) {
+            int entry = positionEntries[i];
+            if (keyStarts[entry + 1] - positions[i] != key.length() || compare(i, key) != 0) {
+                return -1;
+            }
+            if (positions[i] == keyStarts[entry] && kinds[entry] == kind.ordinal()) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param after false: the first position whose suffix is not before the prefix,
+     *              true: the first one after all the suffixes starting with the prefix
+     * */
+    private int lowerBound(String prefix, boolean after) {
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, prefix);
+            if (comparison < 0 || (after && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //<0 when the suffix sorts before the prefix, 0 when it starts with it, >0 after it
+    private int compare(int position, String prefix) {
+        int offset = positions[position];
+        int end = keyStarts[positionEntries[position] + 1];
+        for (int i = 0; i < prefix.length(); i++) {
+            if (offset + i >= end) {
+                return -1;
+            }
+            int difference = keys[offset + i] - prefix.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private int heavier(int left, int right) {
+        if (left < 0 || right < 0) {
+            return left < 0 ? right : left;
+        }
+        return weights[positionEntries[right]] > weights[positionEntries[left]] ? right : left;
+    }
+
+    /**
+     * lower case, accents removed, anything but letters and digits is one space between two words
+     * */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        boolean separated = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+                separated = false;
+            } else if (!separated) {
+                key.append(' ');
+                separated = true;
+            }
+        }
+        if (separated && !key.isEmpty()) {
+            key.setLength(key.length() - 1);
+        }
+        return key.toString();
+    }
+
+    /**
+     * sums the books and the weights of the same (kind, normalized text), not thread safe
+     * */
+    static final class Builder {
+
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        Builder add(SuggestionKind kind, String text, int books, long weight) {
+            String key = normalize(text);
+            if (!key.isEmpty()) {
+                add(kind, key, text.strip(), books, weight);
+            }
+            return this;
+        }
+
+        Builder add(SuggestionKind kind, String key, String text, int books, long weight) {
+            entries.merge(kind.ordinal() + key, new Entry(kind, key, text, books, weight), Entry::plus);
+            return this;
+        }
+
+        Builder addAll(Builder other) {
+            other.entries.forEach((id, entry) -> entries.merge(id, entry, Entry::plus));
+            return this;
+        }
+
+        Builder addAll(SuggestionIndex index) {
+            for (int entry = 0; entry < index.size(); entry++) {
+                add(index.kind(entry), index.key(entry), index.text(entry), index.books(entry), index.weight(entry));
+            }
+            return this;
+        }
+
+        SuggestionIndex build() {
+            List<Entry> kept = new ArrayList<>(entries.size());
+            int keyLength = 0;
+            int textLength = 0;
+            int wordStarts = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.books() <= 0) {
+                    continue;
+                }
+                kept.add(entry);
+                keyLength += entry.key().length();
+                textLength += entry.text().length();
+                wordStarts += wordStarts(entry.key());
+            }
+            char[] keys = new char[keyLength];
+            int[] keyStarts = new int[kept.size() + 1];
+            char[] texts = new char[textLength];
+            int[] textStarts = new int[kept.size() + 1];
+            byte[] kinds = new byte[kept.size()];
+            int[] books = new int[kept.size()];
+            long[] weights = new long[kept.size()];
+            int[] offsets = new int[wordStarts];
+            int[] offsetEntries = new int[wordStarts];
+            int position = 0;
+            for (int i = 0; i < kept.size(); i++) {
+                Entry entry = kept.get(i);
+                String key = entry.key();
+                key.getChars(0, key.length(), keys, keyStarts[i]);
+                keyStarts[i + 1] = keyStarts[i] + key.length();
+                entry.text().getChars(0, entry.text().length(), texts, textStarts[i]);
+                textStarts[i + 1] = textStarts[i] + entry.text().length();
+                kinds[i] = (byte) entry.kind().ordinal();
+                books[i] = entry.books();
+                weights[i] = entry.weight();
+                for (int c = 0; c < key.length(); c++) {
+                    if (c == 0 || key.charAt(c - 1) == ' ') {
+                        offsets[position] = keyStarts[i] + c;
+                        offsetEntries[position++] = i;
+                    }
+                }
+            }
+            Integer[] order = new Integer[wordStarts];
+            for (int i = 0; i < wordStarts; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compareSuffixes(keys, offsets[a], keyStarts[offsetEntries[a] + 1],
+                    offsets[b], keyStarts[offsetEntries[b] + 1]));
+            int[] positions = new int[wordStarts];
+            int[] positionEntries = new int[wordStarts];
+            for (int i = 0; i < wordStarts; i++) {
+                positions[i] = offsets[order[i]];
+                positionEntries[i] = offsetEntries[order[i]];
+            }
+            return new SuggestionIndex(keys, keyStarts, texts, textStarts, kinds, books, weights, positions, positionEntries);
+        }
+
+        private static int wordStarts(String key) {
+            int words = 0;
+            for (int c = 0; c < key.length(); c++) {
+                if (c == 0 || key.charAt(c - 1) == ' ') {
+                    words++;
+                }
+            }
+            return words;
+        }
+
+        private static int compareSuffixes(char[] keys, int a, int aEnd, int b, int bEnd) {
+            while (a < aEnd && b < bEnd) {
+                int difference = keys[a++] - keys[b++];
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return (aEnd - a) - (bEnd - b);
+        }
+    }
+
+    record Entry(SuggestionKind kind, String key, String text, int books, long weight) {
+
+        Entry plus(Entry other) {
+            //the first spelling seen is the one displayed
+            return new Entry(kind, key, text, books + other.books, weight + other.weight);
+        }
+    }
+}
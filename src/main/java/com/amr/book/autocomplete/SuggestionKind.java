@@ -0,0 +1,6 @@
+package com.amr.book.autocomplete;
+
+public enum SuggestionKind {
+    TITLE,
+    AUTHOR
+}
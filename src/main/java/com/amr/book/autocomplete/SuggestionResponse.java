@@ -0,0 +1,11 @@
+package com.amr.book.autocomplete;
+
+/**
+ * books = the shared books with this title or by this author
+ * */
+public record SuggestionResponse(
+        String text,
+        SuggestionKind kind,
+        int books
+) {
+}
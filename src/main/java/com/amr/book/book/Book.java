@@ -4,11 +4,15 @@ package com.amr.book.book;
 import com.amr.book.common.BaseEntity;
 import com.amr.book.feedback.Feedback;
 import com.amr.book.history.BookTransactionHistory;
+import com.amr.book.sharding.ShardKeyed;
 import com.amr.book.user.User;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -24,7 +28,10 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-public class Book extends BaseEntity {
+//also created by V7 on a database where the table already existed, ddl-auto creates it on a new one
+@Table(indexes = @Index(name = "book_owner_idx", columnList = "owner_id"))
+@EntityListeners(BookEntityListener.class)
+public class Book extends BaseEntity implements ShardKeyed {
 
     private String title;
     private String authorName;
@@ -41,4 +48,19 @@ public class Book extends BaseEntity {
     @OneToMany(mappedBy = "book")
     private List<BookTransactionHistory> histories;
 
+    //values as they were loaded from the database, BookEntityListener compares them with the flushed ones
+    @Transient
+    private boolean loadedShareable;
+    @Transient
+    private boolean loadedArchived;
+    @Transient
+    private String loadedTitle;
+    @Transient
+    private String loadedAuthorName;
+
+    @Override
+    public Integer shardOwnerId() {
+        return owner == null ? null : owner.getId();
+    }
+
 }
@@ -0,0 +1,281 @@
+package com.amr.book.book;
+
+import com.amr.book.common.EntityChange;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * compressed bitmaps of book ids, one of every book, one per catalog facet (shareable, archived, on loan)
+ * and one per owner, plus "available" = shareable and not archived and not on loan kept up to date with them.
+ * "available books not owned by me, newest first" walks the available bitmap backwards from the cursor
+ * and skips the bits of my own bitmap (available ANDNOT mine), then only the ids of the page are read
+ * from the database: the cost follows the page size, not the catalog size.
+ * built from the database at startup and every night, moved by the committed book and loan changes
+ * */
+@Slf4j
+@Component
+public class BookAvailabilityIndex {
+
+    private static final String BOOKS = "SELECT id, owner_id, shareable, archived FROM book";
+    //served by the partial open loan index of book_transaction_history
+    private static final String OPEN_LOANS = """
+            SELECT DISTINCT book_id FROM book_transaction_history
+            WHERE NOT returned AND book_id IS NOT NULL
+            """;
+
+    private final ShardTemplate shardTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    //readers share the lock, the writers (events, swap after a rebuild) take it alone
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Facets facets = new Facets();
+    //the events received while a rebuild reads the database, applied again on the new bitmaps
+    private List<Object> missedEvents;
+    private volatile boolean ready;
+
+    public BookAvailabilityIndex(ShardTemplate shardTemplate,
+                                 DataSource dataSource,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${application.catalog.fetch-size:5000}") int fetchSize) {
+        this.shardTemplate = shardTemplate;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * false until the first build is done, the catalog reads the database meanwhile
+     * */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the ids of the available books not owned by the user, below the cursor, newest first
+     * */
+    public int[] findAvailable(int excludedOwnerId, int beforeId, int limit) {
+        int[] ids = new int[limit];
+        int found = 0;
+        lock.readLock().lock();
+        try {
+            RoaringBitmap mine = facets.ownerBooks.get(excludedOwnerId);
+            long id = beforeId <= 0 ? -1 : facets.available.previousValue(beforeId - 1);
+            while (id >= 0 && found < limit) {
+                if (mine == null || !mine.contains((int) id)) {
+                    ids[found++] = (int) id;
+                }
+                id = id == 0 ? -1 : facets.available.previousValue((int) id - 1);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found == limit ? ids : Arrays.copyOf(ids, found);
+    }
+
+    /**
+     * @return whether the book exists, always true until the first build is done
+     * */
+    public boolean exists(int bookId) {
+        if (!ready) {
+            return true;
+        }
+        lock.readLock().lock();
+        try {
+            return facets.books.contains(bookId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long availableCount() {
+        lock.readLock().lock();
+        try {
+            return facets.available.getLongCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAtStartup() {
+        rebuild();
+    }
+
+    @Scheduled(cron = "${application.catalog.index-rebuild-cron:0 45 4 * * *}")
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            missedEvents = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Facets built = new Facets();
+        try {
+            //the shards fill their own facets, merged below
+            List<Facets> shards = shardTemplate.scatter(shard -> readOnlyTransaction.execute(status -> readFacets()));
+            shards.forEach(built::merge);
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                missedEvents = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            missedEvents.forEach(event -> apply(built, event));
+            missedEvents = null;
+            facets = built;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("book availability index built in {} ms: {} available books, {} bytes",
+                System.currentTimeMillis() - start, built.available.getLongCardinality(), built.sizeInBytes());
+    }
+
+    @TransactionalEventListener
+    public void onBookChanged(BookChangedEvent event) {
+        onChange(event);
+    }
+
+    @TransactionalEventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        onChange(event);
+    }
+
+    private void onChange(Object event) {
+        lock.writeLock().lock();
+        try {
+            apply(facets, event);
+            if (missedEvents != null) {
+                missedEvents.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //the events carry states, not deltas: applying one twice changes nothing
+    private static void apply(Facets facets, Object event) {
+        if (event instanceof BookChangedEvent book && book.bookId() != null) {
+            int id = book.bookId();
+            if (book.change() == EntityChange.DELETED) {
+                facets.remove(id, book.ownerId());
+            } else {
+                facets.setBook(id, book.ownerId(), book.shareable(), book.archived());
+            }
+        } else if (event instanceof LoanChangedEvent loan && loan.bookId() != null) {
+            facets.setOnLoan(loan.bookId(), loan.change() != EntityChange.DELETED && !loan.returned());
+        }
+    }
+
+    private Facets readFacets() {
+        Facets shard = new Facets();
+        jdbcTemplate.query(BOOKS, (RowCallbackHandler) rs -> {
+            int ownerId = rs.getInt("owner_id");
+            shard.setBook(rs.getInt("id"), rs.wasNull() ? null : ownerId,
+                    rs.getBoolean("shareable"), rs.getBoolean("archived"));
+        });
+        jdbcTemplate.query(OPEN_LOANS, (RowCallbackHandler) rs -> shard.setOnLoan(rs.getInt("book_id"), true));
+        return shard;
+    }
+
+    private static final class Facets {
+        private final RoaringBitmap books = new RoaringBitmap();
+        private final RoaringBitmap shareable = new RoaringBitmap();
+        private final RoaringBitmap archived = new RoaringBitmap();
+        private final RoaringBitmap onLoan = new RoaringBitmap();
+        private final RoaringBitmap available = new RoaringBitmap();
+        private final Map<Integer, RoaringBitmap> ownerBooks = new HashMap<>();
+
+        void setBook(int id, Integer ownerId, boolean isShareable, boolean isArchived) {
+            books.add(id);
+            set(shareable, id, isShareable);
+            set(archived, id, isArchived);
+            if (ownerId != null) {
+                ownerBooks.computeIfAbsent(ownerId, owner -> new RoaringBitmap()).add(id);
+            }
+            refresh(id);
+        }
+
+        void setOnLoan(int id, boolean loaned) {
+            set(onLoan, id, loaned);
+            refresh(id);
+        }
+
+        void remove(int id, Integer ownerId) {
+            books.remove(id);
+            shareable.remove(id);
+            archived.remove(id);
+            onLoan.remove(id);
+            available.remove(id);
+            RoaringBitmap owned = ownerId == null ? null : ownerBooks.get(ownerId);
+            if (owned != null) {
+                owned.remove(id);
+                if (owned.isEmpty()) {
+                    ownerBooks.remove(ownerId);
+                }
+            }
+        }
+
+        //the facets of a shard, their ids never meet the ones of another shard
+        void merge(Facets shard) {
+            books.or(shard.books);
+            shareable.or(shard.shareable);
+            archived.or(shard.archived);
+            onLoan.or(shard.onLoan);
+            shard.ownerBooks.forEach((owner, books) ->
+                    ownerBooks.computeIfAbsent(owner, key -> new RoaringBitmap()).or(books));
+            available.or(shard.available);
+        }
+
+        long sizeInBytes() {
+            long bytes = books.getLongSizeInBytes() + shareable.getLongSizeInBytes() + archived.getLongSizeInBytes()
+                    + onLoan.getLongSizeInBytes() + available.getLongSizeInBytes();
+            for (RoaringBitmap books : ownerBooks.values()) {
+                bytes += books.getLongSizeInBytes();
+            }
+            return bytes;
+        }
+
+        private void refresh(int id) {
+            set(available, id, shareable.contains(id) && !archived.contains(id) && !onLoan.contains(id));
+        }
+
+        private static void set(RoaringBitmap bitmap, int id, boolean value) {
+            if (value) {
+                bitmap.add(id);
+            } else {
+                bitmap.remove(id);
+            }
+        }
+    }
+}
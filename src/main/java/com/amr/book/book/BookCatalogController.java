@@ -0,0 +1,31 @@
+package com.amr.book.book;
+
+import com.amr.book.common.KeysetPageResponse;
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("books")
+@RequiredArgsConstructor
+@Tag(name = "Book")
+public class BookCatalogController {
+
+    private final BookCatalogService service;
+
+    @GetMapping("/catalog")
+    public ResponseEntity<KeysetPageResponse<BookResponse>> findCatalogPage(
+            @RequestParam(name = "after", required = false) Integer after,
+            @RequestParam(name = "size", defaultValue = "10", required = false) int size,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.findCatalogPage(user.getId(), after, size));
+    }
+}
@@ -0,0 +1,152 @@
+package com.amr.book.book;
+
+import com.amr.book.common.KeysetPageResponse;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * the catalog of the books available to borrow (shared, not archived, not on loan) of the other users,
+ * newest first, read after a cursor (the last id seen).
+ * once BookAvailabilityIndex is built it gives the ids of the page and only those rows are read,
+ * before that every shard returns its own next page,
+ * the pages are merged by id and cut to the page size.
+ * the owner names and the view counts come from the global database in one query each
+ * */
+@Service
+@RequiredArgsConstructor
+public class BookCatalogService {
+
+    private static final String CATALOG_PAGE = """
+            SELECT b.id, b.title, b.author_name, b.isbn, b.synopsis, b.owner_id, b.shareable, b.archived
+            FROM book b
+            WHERE b.shareable AND NOT b.archived AND b.owner_id <> ? AND b.id < ?
+            AND NOT EXISTS (SELECT 1 FROM book_transaction_history h WHERE h.book_id = b.id AND NOT h.returned)
+            ORDER BY b.id DESC
+            LIMIT ?
+            """;
+    private static final String BOOKS_BY_ID = """
+            SELECT id, title, author_name, isbn, synopsis, owner_id, shareable, archived
+            FROM book
+            WHERE id IN (:ids)
+            """;
+
+    private static final RowMapper<BookResponse> BOOK_ROW = (rs, rowNum) -> BookResponse.builder()
+            .id(rs.getInt("id"))
+            .title(rs.getString("title"))
+            .authorName(rs.getString("author_name"))
+            .isbn(rs.getString("isbn"))
+            .synopsis(rs.getString("synopsis"))
+            .ownerId(rs.getInt("owner_id"))
+            .shareable(rs.getBoolean("shareable"))
+            .archived(rs.getBoolean("archived"))
+            .build();
+
+    private final ShardTemplate shardTemplate;
+    private final BookAvailabilityIndex availabilityIndex;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final BookViewCounter viewCounter;
+
+    @Value("${application.catalog.max-page-size:100}")
+    private int maxPageSize;
+
+    public KeysetPageResponse<BookResponse> findCatalogPage(Integer userId, Integer after, int size) {
+        int pageSize = Math.min(Math.max(size, 1), maxPageSize);
+        int cursor = after == null ? Integer.MAX_VALUE : after;
+        if (availabilityIndex.isReady()) {
+            return findByIndex(userId, cursor, pageSize);
+        }
+        //one row more than the page tells whether there is a next page
+        List<BookResponse> merged = mergeByIdDesc(shardTemplate.scatter(shard ->
+                jdbcTemplate.query(CATALOG_PAGE, BOOK_ROW, userId, cursor, pageSize + 1)), pageSize + 1);
+        boolean last = merged.size() <= pageSize;
+        List<BookResponse> content = last ? merged : new ArrayList<>(merged.subList(0, pageSize));
+        fillOwnerNames(content);
+        fillViews(content);
+        Integer nextCursor = last || content.isEmpty() ? null : content.get(content.size() - 1).getId();
+        return new KeysetPageResponse<>(content, pageSize, nextCursor, last);
+    }
+
+    //primary key reads of the ids of the page only, a book changed since the index was updated is left out
+    private KeysetPageResponse<BookResponse> findByIndex(Integer userId, int cursor, int pageSize) {
+        int[] ids = availabilityIndex.findAvailable(userId, cursor, pageSize + 1);
+        boolean last = ids.length <= pageSize;
+        int[] pageIds = last ? ids : Arrays.copyOf(ids, pageSize);
+        List<BookResponse> content = new ArrayList<>(pageIds.length);
+        if (pageIds.length > 0) {
+            List<Integer> idList = Arrays.stream(pageIds).boxed().toList();
+            Map<Integer, BookResponse> books = new HashMap<>();
+            shardTemplate.scatter(shard -> namedParameterJdbcTemplate.query(BOOKS_BY_ID, Map.of("ids", idList), BOOK_ROW))
+                    .forEach(rows -> rows.forEach(book -> books.put(book.getId(), book)));
+            for (int id : pageIds) {
+                BookResponse book = books.get(id);
+                if (book != null && book.isShareable() && !book.isArchived() && !book.getOwnerId().equals(userId)) {
+                    content.add(book);
+                }
+            }
+        }
+        fillOwnerNames(content);
+        fillViews(content);
+        return new KeysetPageResponse<>(content, pageSize, last ? null : pageIds[pageIds.length - 1], last);
+    }
+
+    //k-way merge of the shard pages, each one already sorted by id descending
+    private static List<BookResponse> mergeByIdDesc(List<List<BookResponse>> pages, int limit) {
+        if (pages.size() == 1) {
+            List<BookResponse> page = pages.get(0);
+            return page.size() > limit ? page.subList(0, limit) : page;
+        }
+        //{page, position in the page}
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                Integer.compare(pages.get(b[0]).get(b[1]).getId(), pages.get(a[0]).get(a[1]).getId()));
+        for (int page = 0; page < pages.size(); page++) {
+            if (!pages.get(page).isEmpty()) {
+                heads.add(new int[]{page, 0});
+            }
+        }
+        List<BookResponse> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            merged.add(pages.get(head[0]).get(head[1]));
+            if (++head[1] < pages.get(head[0]).size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private void fillOwnerNames(List<BookResponse> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        Set<Integer> ownerIds = books.stream().map(BookResponse::getOwnerId).collect(Collectors.toSet());
+        Map<Integer, String> names = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT id, firstname, lastname FROM _user WHERE id IN (:ids)",
+                Map.of("ids", ownerIds),
+                (RowCallbackHandler) rs -> names.put(rs.getInt("id"), rs.getString("firstname") + " " + rs.getString("lastname")));
+        books.forEach(book -> book.setOwner(names.get(book.getOwnerId())));
+    }
+
+    private void fillViews(List<BookResponse> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        Map<Integer, Long> views = viewCounter.views(books.stream().map(BookResponse::getId).toList());
+        books.forEach(book -> book.setViews(views.getOrDefault(book.getId(), 0L)));
+    }
+}
@@ -0,0 +1,23 @@
+package com.amr.book.book;
+
+import com.amr.book.common.EntityChange;
+
+/**
+ * published by {@link BookEntityListener} when a book row is inserted, updated or deleted.
+ * the previous values are the ones loaded from the database (false for a new book),
+ * the current ones are false (null) for a deleted book
+ * */
+public record BookChangedEvent(
+        Integer bookId,
+        Integer ownerId,
+        EntityChange change,
+        boolean shareable,
+        boolean archived,
+        boolean previousShareable,
+        boolean previousArchived,
+        String title,
+        String authorName,
+        String previousTitle,
+        String previousAuthorName
+) {
+}
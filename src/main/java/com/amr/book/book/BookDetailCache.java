@@ -0,0 +1,157 @@
+package com.amr.book.book;
+
+import com.amr.book.feedback.FeedbackChangedEvent;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import com.amr.book.sharding.ShardTemplate;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * read-through cache of the assembled book details (book, owner name, feedback aggregate, loan state)
+ * with their json already written, a hit costs neither a query nor jackson.
+ * bounded by size with W-TinyLFU eviction (caffeine), a miss loads the book once however many requests
+ * ask it at the same time, the others wait for that load. the committed book, feedback and loan changes
+ * of this node invalidate the book at once, the ones of the other nodes after the time to live
+ * */
+@Service
+public class BookDetailCache {
+
+    private static final String BOOK_DETAIL = """
+            SELECT b.id, b.title, b.author_name, b.isbn, b.synopsis, b.owner_id, b.shareable, b.archived,
+                   r.rate, r.feedbacks,
+                   EXISTS (SELECT 1 FROM book_transaction_history h WHERE h.book_id = b.id AND NOT h.returned) AS on_loan
+            FROM book b
+            LEFT JOIN LATERAL (SELECT coalesce(avg(f.note), 0) AS rate, count(f.note) AS feedbacks
+                               FROM feedback f WHERE f.book_id = b.id) r ON true
+            WHERE b.id = ?
+            """;
+
+    private static final RowMapper<BookDetailResponse> DETAIL_ROW = (rs, rowNum) -> {
+        boolean shareable = rs.getBoolean("shareable");
+        boolean archived = rs.getBoolean("archived");
+        boolean onLoan = rs.getBoolean("on_loan");
+        return new BookDetailResponse(
+                rs.getInt("id"),
+                rs.getString("title"),
+                rs.getString("author_name"),
+                rs.getString("isbn"),
+                rs.getString("synopsis"),
+                rs.getObject("owner_id", Integer.class),
+                null,
+                shareable,
+                archived,
+                onLoan,
+                shareable && !archived && !onLoan,
+                rs.getDouble("rate"),
+                rs.getLong("feedbacks"));
+    };
+
+    public record CachedBookDetail(BookDetailResponse detail, byte[] json) {
+    }
+
+    private final ShardRouter shardRouter;
+    private final ShardTemplate shardTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final LoadingCache<Integer, CachedBookDetail> cache;
+
+    public BookDetailCache(ShardRouter shardRouter,
+                           ShardTemplate shardTemplate,
+                           JdbcTemplate jdbcTemplate,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${application.book-details.max-size:10000}") long maxSize,
+                           @Value("${application.book-details.ttl:10m}") Duration ttl) {
+        this.shardRouter = shardRouter;
+        this.shardTemplate = shardTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        //a LoadingCache runs one load per key, the concurrent gets of that key wait for it
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(this::load);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "book-details");
+    }
+
+    /**
+     * @return null when there is no such book
+     * */
+    public CachedBookDetail get(int bookId) {
+        return cache.get(bookId);
+    }
+
+    //a load running when the change commits finishes before the invalidation removes its result
+    @TransactionalEventListener
+    public void onBookChanged(BookChangedEvent event) {
+        invalidate(event.bookId());
+    }
+
+    @TransactionalEventListener
+    public void onFeedbackChanged(FeedbackChangedEvent event) {
+        invalidate(event.bookId());
+    }
+
+    @TransactionalEventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        invalidate(event.bookId());
+    }
+
+    private void invalidate(Integer bookId) {
+        if (bookId != null) {
+            cache.invalidate(bookId);
+        }
+    }
+
+    private CachedBookDetail load(Integer bookId) throws JsonProcessingException {
+        BookDetailResponse detail = ShardContext.call(shardRouter.shardOfId(bookId), () -> find(bookId));
+        if (detail == null && shardRouter.isEnabled()) {
+            //an id given before the ids carried the bucket of their owner
+            detail = shardTemplate.scatter(shard -> find(bookId)).stream()
+                    .filter(Objects::nonNull)
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (detail == null) {
+            return null;
+        }
+        if (detail.ownerId() != null) {
+            detail = withOwner(detail, ownerName(detail.ownerId()));
+        }
+        return new CachedBookDetail(detail, objectMapper.writeValueAsBytes(detail));
+    }
+
+    private BookDetailResponse find(int bookId) {
+        List<BookDetailResponse> rows = jdbcTemplate.query(BOOK_DETAIL, DETAIL_ROW, bookId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    //from the global database
+    private String ownerName(int ownerId) {
+        List<String> names = jdbcTemplate.query("SELECT firstname, lastname FROM _user WHERE id = ?",
+                (rs, rowNum) -> rs.getString("firstname") + " " + rs.getString("lastname"), ownerId);
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    private static BookDetailResponse withOwner(BookDetailResponse detail, String owner) {
+        return new BookDetailResponse(detail.id(), detail.title(), detail.authorName(), detail.isbn(),
+                detail.synopsis(), detail.ownerId(), owner, detail.shareable(), detail.archived(),
+                detail.onLoan(), detail.available(), detail.rate(), detail.feedbacks());
+    }
+}
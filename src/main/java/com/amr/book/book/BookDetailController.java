@@ -0,0 +1,37 @@
+package com.amr.book.book;
+
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("books")
+@RequiredArgsConstructor
+@Tag(name = "Book")
+public class BookDetailController {
+
+    private final BookDetailCache detailCache;
+    private final BookViewCounter viewCounter;
+
+    //the cached json is sent as it is
+    @GetMapping(value = "/{book-id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponse(responseCode = "200", content = @Content(schema = @Schema(implementation = BookDetailResponse.class)))
+    public ResponseEntity<byte[]> findBookById(@PathVariable("book-id") Integer bookId) {
+        BookDetailCache.CachedBookDetail detail = detailCache.get(bookId);
+        if (detail == null) {
+            return ResponseEntity.notFound().build();
+        }
+        viewCounter.recordView(bookId);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(detail.json());
+    }
+}
@@ -0,0 +1,22 @@
+package com.amr.book.book;
+
+/**
+ * cached as it is (see BookDetailCache), never modified once built.
+ * available = shareable, not archived and not on loan; rate = average feedback note, 0 without feedback
+ * */
+public record BookDetailResponse(
+        Integer id,
+        String title,
+        String authorName,
+        String isbn,
+        String synopsis,
+        Integer ownerId,
+        String owner,
+        boolean shareable,
+        boolean archived,
+        boolean onLoan,
+        boolean available,
+        double rate,
+        long feedbacks
+) {
+}
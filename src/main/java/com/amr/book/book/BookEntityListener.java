@@ -0,0 +1,69 @@
+package com.amr.book.book;
+
+import com.amr.book.common.EntityChange;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * turns the book writes into {@link BookChangedEvent}s whatever the code path that did them.
+ * the events are published while hibernate flushes, so the listeners either work in the same
+ * transaction (@EventListener) or wait for the commit (@TransactionalEventListener)
+ * */
+@Component
+@RequiredArgsConstructor
+public class BookEntityListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    @PostLoad
+    void snapshot(Book book) {
+        book.setLoadedShareable(book.isShareable());
+        book.setLoadedArchived(book.isArchived());
+        book.setLoadedTitle(book.getTitle());
+        book.setLoadedAuthorName(book.getAuthorName());
+    }
+
+    @PostPersist
+    void created(Book book) {
+        publish(book, EntityChange.CREATED, book.isShareable(), book.isArchived(), false, false,
+                book.getTitle(), book.getAuthorName(), null, null);
+        snapshot(book);
+    }
+
+    @PostUpdate
+    void updated(Book book) {
+        publish(book, EntityChange.UPDATED, book.isShareable(), book.isArchived(),
+                book.isLoadedShareable(), book.isLoadedArchived(),
+                book.getTitle(), book.getAuthorName(), book.getLoadedTitle(), book.getLoadedAuthorName());
+        snapshot(book);
+    }
+
+    @PostRemove
+    void deleted(Book book) {
+        publish(book, EntityChange.DELETED, false, false, book.isLoadedShareable(), book.isLoadedArchived(),
+                null, null, book.getLoadedTitle(), book.getLoadedAuthorName());
+    }
+
+    private void publish(Book book, EntityChange change, boolean shareable, boolean archived,
+                         boolean previousShareable, boolean previousArchived,
+                         String title, String authorName, String previousTitle, String previousAuthorName) {
+        publisher.publishEvent(new BookChangedEvent(
+                book.getId(),
+                book.getOwner() == null ? null : book.getOwner().getId(),
+                change,
+                shareable,
+                archived,
+                previousShareable,
+                previousArchived,
+                title,
+                authorName,
+                previousTitle,
+                previousAuthorName
+        ));
+    }
+}
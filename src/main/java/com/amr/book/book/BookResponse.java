@@ -0,0 +1,25 @@
+package com.amr.book.book;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookResponse {
+    private Integer id;
+    private String title;
+    private String authorName;
+    private String isbn;
+    private String synopsis;
+    private Integer ownerId;
+    private String owner;
+    private boolean shareable;
+    private boolean archived;
+    private long views;
+}
@@ -0,0 +1,33 @@
+package com.amr.book.book;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("books")
+@RequiredArgsConstructor
+@Tag(name = "Book")
+public class BookViewController {
+
+    private final BookViewCounter viewCounter;
+
+    //GET /books/{book-id} counts its own views, this one is for the clients showing the book from elsewhere
+    @PostMapping("/{book-id}/views")
+    public ResponseEntity<Void> recordView(@PathVariable("book-id") Integer bookId) {
+        if (!viewCounter.recordView(bookId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+
+    @GetMapping("/{book-id}/views")
+    public ResponseEntity<BookViewsResponse> views(@PathVariable("book-id") Integer bookId) {
+        return ResponseEntity.ok(new BookViewsResponse(bookId, viewCounter.views(bookId)));
+    }
+}
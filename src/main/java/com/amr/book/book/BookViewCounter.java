@@ -0,0 +1,147 @@
+package com.amr.book.book;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * write-behind view counters: a view is one increment of a striped LongAdder in memory, the deltas
+ * of every book are added to book_view_count by one upsert every few seconds (every node adds its own,
+ * no coordination needed). a crash loses at most the views of the last flush interval of the node.
+ * reads add the pending deltas to the flushed value and never lock a row.
+ * the views of an id the availability index does not know are dropped, and at most max-pending books
+ * are counted between two flushes (before the index is built), so garbage ids cannot grow the memory
+ * nor book_view_count
+ * */
+@Slf4j
+@Service
+public class BookViewCounter {
+
+    private static final String FLUSH = """
+            INSERT INTO book_view_count (book_id, views, updated_at)
+            SELECT v.book_id, v.views, now() FROM unnest(?, ?) AS v(book_id, views)
+            ON CONFLICT (book_id) DO UPDATE SET
+                views = book_view_count.views + EXCLUDED.views,
+                updated_at = EXCLUDED.updated_at
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final BookAvailabilityIndex availabilityIndex;
+    private final int maxPending;
+
+    private final ConcurrentHashMap<Integer, LongAdder> pending = new ConcurrentHashMap<>();
+    //the deltas of the flush running, still counted by the reads until the upsert is done
+    private volatile Map<Integer, Long> flushing = Map.of();
+
+    public BookViewCounter(JdbcTemplate jdbcTemplate,
+                           NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                           BookAvailabilityIndex availabilityIndex,
+                           @Value("${application.views.max-pending:100000}") int maxPending) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.availabilityIndex = availabilityIndex;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @return false when there is no such book
+     * */
+    public boolean recordView(int bookId) {
+        if (!availabilityIndex.exists(bookId)) {
+            return false;
+        }
+        LongAdder adder = pending.get(bookId);
+        if (adder == null) {
+            if (pending.size() >= maxPending) {
+                //lost like on a crash, the next flush makes room
+                return true;
+            }
+            adder = pending.computeIfAbsent(bookId, id -> new LongAdder());
+        }
+        adder.increment();
+        return true;
+    }
+
+    public long views(int bookId) {
+        Long flushed = jdbcTemplate.query("SELECT views FROM book_view_count WHERE book_id = ?",
+                rs -> rs.next() ? rs.getLong(1) : 0L, bookId);
+        return (flushed == null ? 0 : flushed) + unflushed(bookId);
+    }
+
+    //one query for a page of books
+    public Map<Integer, Long> views(Collection<Integer> bookIds) {
+        Map<Integer, Long> views = new HashMap<>();
+        if (bookIds.isEmpty()) {
+            return views;
+        }
+        bookIds.forEach(bookId -> views.put(bookId, unflushed(bookId)));
+        namedParameterJdbcTemplate.query("SELECT book_id, views FROM book_view_count WHERE book_id IN (:ids)",
+                Map.of("ids", bookIds),
+                (RowCallbackHandler) rs -> views.merge(rs.getInt("book_id"), rs.getLong("views"), Long::sum));
+        return views;
+    }
+
+    @Scheduled(fixedDelayString = "${application.views.flush-interval:5000}")
+    public synchronized void flush() {
+        Map<Integer, Long> deltas = new HashMap<>();
+        pending.forEach((bookId, adder) -> {
+            long views = adder.sum();
+            if (views == 0) {
+                //nothing viewed since the last flush, a view racing with the removal is lost like on a crash
+                pending.remove(bookId, adder);
+                return;
+            }
+            deltas.put(bookId, views);
+        });
+        if (deltas.isEmpty()) {
+            return;
+        }
+        //published before the adders are lowered: meanwhile a read counts the delta twice (at most until the
+        //next statement), never zero times
+        flushing = deltas;
+        //add(-n) keeps the views counted meanwhile, sumThenReset could drop them
+        deltas.forEach((bookId, views) -> pending.get(bookId).add(-views));
+        //sorted: two nodes flushing at the same time lock the rows in the same order
+        Integer[] bookIds = deltas.keySet().toArray(Integer[]::new);
+        Arrays.sort(bookIds);
+        Long[] views = Arrays.stream(bookIds).map(deltas::get).toArray(Long[]::new);
+        try {
+            jdbcTemplate.update(connection -> {
+                PreparedStatement statement = connection.prepareStatement(FLUSH);
+                statement.setArray(1, connection.createArrayOf("integer", bookIds));
+                statement.setArray(2, connection.createArrayOf("bigint", views));
+                return statement;
+            });
+        } catch (RuntimeException e) {
+            //kept for the next flush
+            deltas.forEach((bookId, delta) -> pending.computeIfAbsent(bookId, id -> new LongAdder()).add(delta));
+            log.warn("could not flush the views of {} books: {}", deltas.size(), e.getMessage());
+        } finally {
+            flushing = Map.of();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private long unflushed(int bookId) {
+        LongAdder adder = pending.get(bookId);
+        return (adder == null ? 0 : adder.sum()) + flushing.getOrDefault(bookId, 0L);
+    }
+}
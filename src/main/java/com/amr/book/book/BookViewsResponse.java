@@ -0,0 +1,10 @@
+package com.amr.book.book;
+
+/**
+ * the views flushed to book_view_count plus the ones this node still holds in memory
+ * */
+public record BookViewsResponse(
+        Integer bookId,
+        long views
+) {
+}
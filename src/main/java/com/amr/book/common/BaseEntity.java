@@ -1,8 +1,8 @@
 package com.amr.book.common;
 
+import com.amr.book.sharding.ShardAwareId;
 import jakarta.persistence.Column;
 import jakarta.persistence.EntityListeners;
-import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.MappedSuperclass;
 import lombok.AllArgsConstructor;
@@ -27,7 +27,8 @@ import java.time.LocalDateTime;
 @EntityListeners(AuditingEntityListener.class)
 public class BaseEntity {
     @Id
-    @GeneratedValue
+    //on a book shard the bucket of the book owner is part of the id, see ShardAwareIdGenerator
+    @ShardAwareId
     private Integer id;
 
     @CreatedDate
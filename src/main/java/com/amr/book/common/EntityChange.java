@@ -0,0 +1,10 @@
+package com.amr.book.common;
+
+/**
+ * what happened to an entity, carried by the domain events published from the entity listeners
+ * */
+public enum EntityChange {
+    CREATED,
+    UPDATED,
+    DELETED
+}
@@ -0,0 +1,23 @@
+package com.amr.book.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * a page read after a cursor instead of an offset: no count and no deep offset scan,
+ * the next page is asked with after = nextCursor
+ * */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class KeysetPageResponse<T> {
+    private List<T> content;
+    private int size;
+    private Integer nextCursor;
+    private boolean last;
+}
@@ -0,0 +1,48 @@
+package com.amr.book.config;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+
+/**
+ * opt-in lazy initialization for the beans that are not needed to serve the first request
+ * (springdoc, the mail sender...) so they are created on first use instead of during the boot.
+ * with the fast-startup build this is evaluated when the AOT sources are generated,
+ * so the flag has to be given to the build and not only to the running jar
+ * */
+@Configuration
+public class StartupConfig {
+
+    private static final List<String> DEFAULT_LAZY_TYPES = List.of(
+            "org.springdoc.",
+            "com.amr.book.email.EmailService"
+    );
+
+    @Bean
+    @ConditionalOnProperty(prefix = "application.startup.lazy-init", name = "enabled", havingValue = "true")
+    public static BeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor(Environment environment) {
+        List<String> lazyTypes = Binder.get(environment)
+                .bind("application.startup.lazy-init.bean-types", Bindable.listOf(String.class))
+                .orElse(DEFAULT_LAZY_TYPES);
+        return beanFactory -> {
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+                String type = definition.getBeanClassName();
+                if (type == null && definition.getFactoryBeanName() != null) {
+                    //@Bean methods: we only know the configuration class that declares them
+                    type = beanFactory.getBeanDefinition(definition.getFactoryBeanName()).getBeanClassName();
+                }
+                if (type != null && lazyTypes.stream().anyMatch(type::startsWith)) {
+                    definition.setLazyInit(true);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package com.amr.book.export;
+
+import com.amr.book.security.AuthorityDictionary;
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.zip.GZIPOutputStream;
+
+@RestController
+@RequestMapping("exports")
+@RequiredArgsConstructor
+@Tag(name = "Exports")
+public class ExportController {
+
+    private final ExportService service;
+    private final AuthorityDictionary authorityDictionary;
+
+    @GetMapping("/histories")
+    public ResponseEntity<StreamingResponseBody> exportHistories(
+            @RequestParam(name = "format", defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(name = "gzip", defaultValue = "false") boolean gzip,
+            @RequestParam(name = "all", defaultValue = "false") boolean all,
+            Authentication connectedUser
+    ) {
+        if (all && !isAdmin(connectedUser)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        User user = (User) connectedUser.getPrincipal();
+        return stream("histories", format, gzip,
+                out -> service.exportHistories(user.getId(), all, format, out));
+    }
+
+    @GetMapping("/feedbacks")
+    public ResponseEntity<StreamingResponseBody> exportFeedbacks(
+            @RequestParam(name = "format", defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(name = "gzip", defaultValue = "false") boolean gzip,
+            @RequestParam(name = "all", defaultValue = "false") boolean all,
+            Authentication connectedUser
+    ) {
+        if (all && !isAdmin(connectedUser)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        User user = (User) connectedUser.getPrincipal();
+        return stream("feedbacks", format, gzip,
+                out -> service.exportFeedbacks(user.getId(), all, format, out));
+    }
+
+    //the body is written on an async thread, the request thread is released right away
+    private ResponseEntity<StreamingResponseBody> stream(String name, ExportFormat format, boolean gzip,
+                                                         StreamingResponseBody export) {
+        var response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + name + "." + format.getExtension() + "\"");
+        if (!gzip) {
+            return response.body(export);
+        }
+        return response
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .body(out -> {
+                    GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192);
+                    export.writeTo(gzipOut);
+                    gzipOut.finish();
+                });
+    }
+
+    private boolean isAdmin(Authentication connectedUser) {
+        return authorityDictionary.hasAuthority(connectedUser, "ADMIN");
+    }
+}
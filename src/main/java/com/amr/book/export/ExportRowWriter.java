@@ -0,0 +1,15 @@
+package com.amr.book.export;
+
+import java.io.IOException;
+
+/**
+ * writes the rows of an export one at a time, nothing is kept once a row is written
+ * */
+interface ExportRowWriter {
+
+    void header(String[] columns) throws IOException;
+
+    void row(Object[] values) throws IOException;
+
+    void finish() throws IOException;
+}
@@ -0,0 +1,140 @@
+package com.amr.book.export;
+
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * exports read through a server side cursor (the postgres driver only uses one with a fetch size
+ * inside a transaction) and every row goes straight to the response, so the memory used does not
+ * depend on the number of rows. no entity is loaded, there is no persistence context to clear.
+ * the shards are read one after the other (one transaction each), the rows are ordered by id within a shard
+ * */
+@Service
+public class ExportService {
+
+    private static final String HISTORIES = """
+            SELECT h.id, h.book_id, b.title AS book_title, h.user_id AS borrower_id, b.owner_id,
+                   h.returned, h.return_approved, h.created_date, h.last_modified_date
+            FROM book_transaction_history_all h
+            JOIN book b ON b.id = h.book_id
+            """;
+    private static final String FEEDBACKS = """
+            SELECT f.id, f.book_id, b.title AS book_title, f.note, f.comment, f.created_by, f.created_date
+            FROM feedback f
+            JOIN book b ON b.id = f.book_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ShardRouter shardRouter;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public ExportService(DataSource dataSource, ObjectMapper objectMapper, ShardRouter shardRouter,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${application.export.fetch-size:500}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.objectMapper = objectMapper;
+        this.shardRouter = shardRouter;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * the loans of the books owned by the user and the loans made by the user, or every loan for an admin.
+     * the archived loans are included. the books borrowed by the user can be on any shard
+     * */
+    public void exportHistories(Integer userId, boolean all, ExportFormat format, OutputStream out) throws IOException {
+        if (all) {
+            export(shardRouter.shards(), HISTORIES + " ORDER BY h.id", format, out);
+        } else {
+            export(shardRouter.shards(), HISTORIES + " WHERE b.owner_id = ? OR h.user_id = ? ORDER BY h.id",
+                    format, out, userId, userId);
+        }
+    }
+
+    /**
+     * the feedbacks received on the books owned by the user (on the shard of the user), or every feedback for an admin
+     * */
+    public void exportFeedbacks(Integer userId, boolean all, ExportFormat format, OutputStream out) throws IOException {
+        if (all) {
+            export(shardRouter.shards(), FEEDBACKS + " ORDER BY f.id", format, out);
+        } else {
+            export(List.of(shardRouter.shardOfOwner(userId)), FEEDBACKS + " WHERE b.owner_id = ? ORDER BY f.id",
+                    format, out, userId);
+        }
+    }
+
+    //a cursor needs a transaction, started on the shard so that it gets the connection of the shard
+    private void export(List<Integer> shards, String sql, ExportFormat format, OutputStream out, Object... args)
+            throws IOException {
+        ExportRowWriter writer = format == ExportFormat.CSV
+                ? new CsvRowWriter(out)
+                : new NdjsonRowWriter(objectMapper.getFactory(), out);
+        StreamingExtractor extractor = new StreamingExtractor(writer);
+        try {
+            for (int shard : shards) {
+                ShardContext.run(shard, () -> readOnlyTransaction.executeWithoutResult(status ->
+                        jdbcTemplate.query(sql, extractor, args)));
+            }
+        } catch (UncheckedIOException e) {
+            //the client went away: leaving the callback closed the cursor and ended the query
+            throw e.getCause();
+        }
+        writer.finish();
+    }
+
+    //the header comes from the metadata of the result set, so an empty export still has it.
+    //it is written once, on the first shard read
+    private static final class StreamingExtractor implements ResultSetExtractor<Void> {
+
+        private final ExportRowWriter writer;
+        private boolean headerWritten;
+
+        private StreamingExtractor(ExportRowWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public Void extractData(ResultSet rs) throws SQLException {
+            try {
+                ResultSetMetaData metaData = rs.getMetaData();
+                String[] columns = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = metaData.getColumnLabel(i + 1);
+                }
+                if (!headerWritten) {
+                    writer.header(columns);
+                    headerWritten = true;
+                }
+                //the same array for every row, the writer does not keep it
+                Object[] values = new Object[columns.length];
+                while (rs.next()) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = rs.getObject(i + 1);
+                    }
+                    writer.row(values);
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
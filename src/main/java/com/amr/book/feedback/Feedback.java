@@ -2,6 +2,7 @@ package com.amr.book.feedback;
 
 import com.amr.book.book.Book;
 import com.amr.book.common.BaseEntity;
+import com.amr.book.sharding.ShardKeyed;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -21,7 +22,10 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-public class Feedback extends BaseEntity {
+//the keyset batches of the account deletion, also created by V7 on a database where the table already existed
+@Table(indexes = @Index(name = "feedback_created_by_idx", columnList = "created_by, id"))
+@EntityListeners(FeedbackEntityListener.class)
+public class Feedback extends BaseEntity implements ShardKeyed {
 
     @Column
     private Double note;
@@ -30,5 +34,15 @@ public class Feedback extends BaseEntity {
     @JoinColumn(name = "book_id")
     private Book book;
 
+    //note as it was loaded, see FeedbackEntityListener
+    @Transient
+    private Double loadedNote;
+
+    //stored with its book
+    @Override
+    public Integer shardOwnerId() {
+        return book == null ? null : book.shardOwnerId();
+    }
+
 
 }
@@ -0,0 +1,18 @@
+package com.amr.book.feedback;
+
+import com.amr.book.common.EntityChange;
+
+/**
+ * published by {@link FeedbackEntityListener} for every insert, update or delete of a feedback.
+ * previousNote is the loaded note (null for a new feedback), note is null for a deleted one
+ * */
+public record FeedbackChangedEvent(
+        Integer feedbackId,
+        Integer bookId,
+        Integer ownerId,
+        Integer authorId,
+        EntityChange change,
+        Double note,
+        Double previousNote
+) {
+}
@@ -0,0 +1,55 @@
+package com.amr.book.feedback;
+
+import com.amr.book.common.EntityChange;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * publishes a {@link FeedbackChangedEvent} for the feedback writes (same mechanism as BookEntityListener)
+ * */
+@Component
+@RequiredArgsConstructor
+public class FeedbackEntityListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    @PostLoad
+    void snapshot(Feedback feedback) {
+        feedback.setLoadedNote(feedback.getNote());
+    }
+
+    @PostPersist
+    void created(Feedback feedback) {
+        publish(feedback, EntityChange.CREATED, feedback.getNote(), null);
+        snapshot(feedback);
+    }
+
+    @PostUpdate
+    void updated(Feedback feedback) {
+        publish(feedback, EntityChange.UPDATED, feedback.getNote(), feedback.getLoadedNote());
+        snapshot(feedback);
+    }
+
+    @PostRemove
+    void deleted(Feedback feedback) {
+        publish(feedback, EntityChange.DELETED, null, feedback.getLoadedNote());
+    }
+
+    private void publish(Feedback feedback, EntityChange change, Double note, Double previousNote) {
+        var book = feedback.getBook();
+        publisher.publishEvent(new FeedbackChangedEvent(
+                feedback.getId(),
+                book == null ? null : book.getId(),
+                book == null || book.getOwner() == null ? null : book.getOwner().getId(),
+                feedback.getCreatedBy(),
+                change,
+                note,
+                previousNote
+        ));
+    }
+}
@@ -4,7 +4,11 @@ import lombok.Getter;
 import org.springframework.http.HttpStatus;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
 import static org.springframework.http.HttpStatus.FORBIDDEN;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
 public enum BusinessErrorCodes {
     NO_CODE(0,HttpStatus.NOT_IMPLEMENTED,"No code"),
@@ -13,6 +17,12 @@ public enum BusinessErrorCodes {
     ACCOUNT_LOCKED(302,FORBIDDEN,"User account is locked"),
     ACCOUNT_DISABLED(303,FORBIDDEN,"User account is disabled"),
     BAD_CREDENTIALS(304,FORBIDDEN,"Login and / password is incorrect"),
+    IDEMPOTENCY_KEY_REUSED(305,UNPROCESSABLE_ENTITY,"Idempotency-Key already used for a different request"),
+    IDEMPOTENT_REQUEST_IN_PROGRESS(306,CONFLICT,"A request with the same Idempotency-Key is still running"),
+    SERVER_OVERLOADED(307,SERVICE_UNAVAILABLE,"Too many requests in progress, retry later"),
+    ACTIVATION_TOKEN_EXPIRED(308,BAD_REQUEST,"Activation code has expired, a new one has been sent"),
+    BOOK_NOT_FOUND(309,NOT_FOUND,"No book with this id"),
+    WAITLIST_NOT_ALLOWED(310,CONFLICT,"This book has no waitlist for you"),
     ;
     @Getter
     private final int  code;
@@ -1,5 +1,7 @@
 package com.amr.book.handler;
 
+import com.amr.book.auth.ActivationTokenExpiredException;
+import com.amr.book.waitlist.WaitlistJoinRefusedException;
 import jakarta.mail.MessagingException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -51,6 +53,26 @@ public class GlobalExceptionHandler {
                         .error(exp.getMessage())
                         .build());
     }
+    @ExceptionHandler(ActivationTokenExpiredException.class)
+    public ResponseEntity<ExceptionResponse>handleException(ActivationTokenExpiredException exp){
+        return  ResponseEntity
+                .status(ACTIVATION_TOKEN_EXPIRED.getHttpStatus())
+                .body(ExceptionResponse.builder()
+                        .businessErrorCode(ACTIVATION_TOKEN_EXPIRED.getCode())
+                        .businessErrorDescription(ACTIVATION_TOKEN_EXPIRED.getDescription())
+                        .error(exp.getMessage())
+                        .build());
+    }
+    @ExceptionHandler(WaitlistJoinRefusedException.class)
+    public ResponseEntity<ExceptionResponse>handleException(WaitlistJoinRefusedException exp){
+        return  ResponseEntity
+                .status(exp.getCode().getHttpStatus())
+                .body(ExceptionResponse.builder()
+                        .businessErrorCode(exp.getCode().getCode())
+                        .businessErrorDescription(exp.getCode().getDescription())
+                        .error(exp.getMessage())
+                        .build());
+    }
     @ExceptionHandler(MessagingException.class)
     public ResponseEntity<ExceptionResponse>handleException(MessagingException exp){
         return  ResponseEntity
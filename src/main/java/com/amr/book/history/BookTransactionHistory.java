@@ -2,10 +2,13 @@ package com.amr.book.history;
 
 import com.amr.book.book.Book;
 import com.amr.book.common.BaseEntity;
+import com.amr.book.sharding.ShardKeyed;
 import com.amr.book.user.User;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Transient;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -19,7 +22,8 @@ import lombok.experimental.SuperBuilder;
 @NoArgsConstructor
 
 @Entity
-public class BookTransactionHistory extends BaseEntity {
+@EntityListeners(BookTransactionHistoryListener.class)
+public class BookTransactionHistory extends BaseEntity implements ShardKeyed {
 
     @ManyToOne
     @JoinColumn(name = "user_id")
@@ -30,5 +34,17 @@ public class BookTransactionHistory extends BaseEntity {
     private boolean returned;
     private boolean returnApproved;
 
+    //flags as they were loaded, see BookTransactionHistoryListener
+    @Transient
+    private boolean loadedReturned;
+    @Transient
+    private boolean loadedReturnApproved;
+
+    //stored with the book, not with the borrower
+    @Override
+    public Integer shardOwnerId() {
+        return book == null ? null : book.shardOwnerId();
+    }
+
 
 }
@@ -0,0 +1,43 @@
+package com.amr.book.history;
+
+import com.amr.book.common.PageResponse;
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("histories")
+@RequiredArgsConstructor
+@Tag(name = "Histories")
+public class BookTransactionHistoryController {
+
+    private final BookTransactionHistoryService service;
+
+    @GetMapping("/borrowed")
+    public ResponseEntity<PageResponse<LoanResponse>> findRecentBorrowedBooks(
+            @RequestParam(name = "days", defaultValue = "90", required = false) int days,
+            @RequestParam(name = "page", defaultValue = "0", required = false) int page,
+            @RequestParam(name = "size", defaultValue = "10", required = false) int size,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.findRecentBorrowedBooks(user.getId(), days, page, size));
+    }
+
+    @GetMapping("/lent")
+    public ResponseEntity<PageResponse<LoanResponse>> findRecentLentBooks(
+            @RequestParam(name = "days", defaultValue = "90", required = false) int days,
+            @RequestParam(name = "page", defaultValue = "0", required = false) int page,
+            @RequestParam(name = "size", defaultValue = "10", required = false) int size,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.findRecentLentBooks(user.getId(), days, page, size));
+    }
+}
@@ -0,0 +1,63 @@
+package com.amr.book.history;
+
+import com.amr.book.common.EntityChange;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * publishes a {@link LoanChangedEvent} when a loan is created, returned, approved or deleted
+ * (same mechanism as BookEntityListener)
+ * */
+@Component
+@RequiredArgsConstructor
+public class BookTransactionHistoryListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    @PostLoad
+    void snapshot(BookTransactionHistory history) {
+        history.setLoadedReturned(history.isReturned());
+        history.setLoadedReturnApproved(history.isReturnApproved());
+    }
+
+    @PostPersist
+    void created(BookTransactionHistory history) {
+        publish(history, EntityChange.CREATED, history.isReturned(), history.isReturnApproved(), false, false);
+        snapshot(history);
+    }
+
+    @PostUpdate
+    void updated(BookTransactionHistory history) {
+        publish(history, EntityChange.UPDATED, history.isReturned(), history.isReturnApproved(),
+                history.isLoadedReturned(), history.isLoadedReturnApproved());
+        snapshot(history);
+    }
+
+    @PostRemove
+    void deleted(BookTransactionHistory history) {
+        publish(history, EntityChange.DELETED, false, false,
+                history.isLoadedReturned(), history.isLoadedReturnApproved());
+    }
+
+    private void publish(BookTransactionHistory history, EntityChange change, boolean returned, boolean returnApproved,
+                         boolean previousReturned, boolean previousReturnApproved) {
+        var book = history.getBook();
+        publisher.publishEvent(new LoanChangedEvent(
+                history.getId(),
+                book == null ? null : book.getId(),
+                history.getUser() == null ? null : history.getUser().getId(),
+                book == null || book.getOwner() == null ? null : book.getOwner().getId(),
+                change,
+                returned,
+                returnApproved,
+                previousReturned,
+                previousReturnApproved,
+                history.getCreatedDate()
+        ));
+    }
+}
@@ -0,0 +1,15 @@
+package com.amr.book.history;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+public interface BookTransactionHistoryRepository extends JpaRepository<BookTransactionHistory, Integer> {
+
+    //served by the partial index on open loans
+    @Query("""
+            SELECT count(h) > 0 FROM BookTransactionHistory h
+            WHERE h.book.id = :bookId
+            AND h.returned = false
+            """)
+    boolean isBookOnLoan(Integer bookId);
+}
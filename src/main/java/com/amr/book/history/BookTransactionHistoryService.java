@@ -0,0 +1,115 @@
+package com.amr.book.history;
+
+import com.amr.book.common.PageResponse;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * the recent loans of a user, newest first.
+ * the lent books are on the shard of their owner, the borrowed ones on the shards of all their owners:
+ * every shard returns the rows up to the end of the requested page, they are merged and the page is cut from them.
+ * book_transaction_history is partitioned by created_date: the queries take a lower bound on it
+ * so postgres only scans the partitions of the requested period
+ * */
+@Service
+@RequiredArgsConstructor
+public class BookTransactionHistoryService {
+
+    private static final String BORROWED = """
+            SELECT h.id, h.book_id, b.title, b.author_name, b.isbn, h.returned, h.return_approved, h.created_date
+            FROM book_transaction_history h
+            JOIN book b ON b.id = h.book_id
+            WHERE h.user_id = ? AND h.created_date >= ?
+            ORDER BY h.created_date DESC, h.id DESC
+            LIMIT ?
+            """;
+    private static final String BORROWED_COUNT = """
+            SELECT count(*) FROM book_transaction_history h
+            WHERE h.user_id = ? AND h.created_date >= ?
+            """;
+    private static final String LENT = """
+            SELECT h.id, h.book_id, b.title, b.author_name, b.isbn, h.returned, h.return_approved, h.created_date
+            FROM book_transaction_history h
+            JOIN book b ON b.id = h.book_id
+            WHERE b.owner_id = ? AND h.created_date >= ?
+            ORDER BY h.created_date DESC, h.id DESC
+            LIMIT ?
+            """;
+    private static final String LENT_COUNT = """
+            SELECT count(*) FROM book_transaction_history h
+            JOIN book b ON b.id = h.book_id
+            WHERE b.owner_id = ? AND h.created_date >= ?
+            """;
+
+    private static final RowMapper<LoanResponse> LOAN_ROW = (rs, rowNum) -> LoanResponse.builder()
+            .id(rs.getInt("id"))
+            .bookId(rs.getInt("book_id"))
+            .title(rs.getString("title"))
+            .authorName(rs.getString("author_name"))
+            .isbn(rs.getString("isbn"))
+            .returned(rs.getBoolean("returned"))
+            .returnApproved(rs.getBoolean("return_approved"))
+            .createdDate(rs.getTimestamp("created_date").toLocalDateTime())
+            .build();
+
+    private static final Comparator<LoanResponse> NEWEST_FIRST = Comparator
+            .comparing(LoanResponse::getCreatedDate, Comparator.reverseOrder())
+            .thenComparing(LoanResponse::getId, Comparator.reverseOrder());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardTemplate shardTemplate;
+
+    //"recent" has to stay bounded, it decides how many partitions a listing touches
+    @Value("${application.history.max-recent-days:365}")
+    private int maxRecentDays;
+    @Value("${application.catalog.max-page-size:100}")
+    private int maxPageSize;
+
+    public PageResponse<LoanResponse> findRecentBorrowedBooks(Integer userId, int days, int page, int size) {
+        LocalDateTime since = since(days);
+        int pageNumber = Math.max(page, 0);
+        int pageSize = pageSize(size);
+        List<Long> counts = shardTemplate.scatter(shard ->
+                jdbcTemplate.queryForObject(BORROWED_COUNT, Long.class, userId, since));
+        List<List<LoanResponse>> rows = shardTemplate.scatter(shard ->
+                jdbcTemplate.query(BORROWED, LOAN_ROW, userId, since, (pageNumber + 1) * pageSize));
+        return toResponse(rows, counts.stream().mapToLong(Long::longValue).sum(), pageNumber, pageSize);
+    }
+
+    public PageResponse<LoanResponse> findRecentLentBooks(Integer ownerId, int days, int page, int size) {
+        LocalDateTime since = since(days);
+        int pageNumber = Math.max(page, 0);
+        int pageSize = pageSize(size);
+        return shardTemplate.onOwnerShard(ownerId, () -> toResponse(
+                List.of(jdbcTemplate.query(LENT, LOAN_ROW, ownerId, since, (pageNumber + 1) * pageSize)),
+                jdbcTemplate.queryForObject(LENT_COUNT, Long.class, ownerId, since), pageNumber, pageSize));
+    }
+
+    private LocalDateTime since(int days) {
+        return LocalDateTime.now().minusDays(Math.min(Math.max(days, 1), maxRecentDays));
+    }
+
+    //a size <= 0 returned nothing, a huge size read every row
+    private int pageSize(int size) {
+        return Math.min(Math.max(size, 1), maxPageSize);
+    }
+
+    private static PageResponse<LoanResponse> toResponse(List<List<LoanResponse>> shards, long total, int page, int size) {
+        List<LoanResponse> merged = new ArrayList<>();
+        shards.forEach(merged::addAll);
+        merged.sort(NEWEST_FIRST);
+        int from = Math.min(page * size, merged.size());
+        List<LoanResponse> content = new ArrayList<>(merged.subList(from, Math.min(from + size, merged.size())));
+        int totalPages = (int) ((total + size - 1) / size);
+        return new PageResponse<>(content, page, size, total, totalPages, page == 0, page + 1 >= totalPages);
+    }
+}
@@ -0,0 +1,128 @@
+package com.amr.book.history;
+
+import com.amr.book.scheduling.ClusterJobRunner;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * maintenance of the partitioned book_transaction_history (see V1__partition_book_transaction_history.sql):
+ * creates the partitions of the coming months, moves the closed loans older than the retention
+ * to the archive in small batches (one short transaction each, SKIP LOCKED so it never waits on a
+ * loan being updated) and drops the old monthly partitions left empty, so vacuum only works on recent data
+ * */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HistoryArchivalJob {
+
+    private static final String ARCHIVE_BATCH = """
+            WITH moved AS (
+                DELETE FROM book_transaction_history h
+                WHERE (h.id, h.created_date) IN (
+                    SELECT id, created_date FROM book_transaction_history
+                    WHERE created_date < ? AND returned AND return_approved
+                    ORDER BY created_date
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+                RETURNING h.id, h.created_date, h.last_modified_date, h.created_by, h.last_modified_by,
+                          h.returned, h.return_approved, h.book_id, h.user_id)
+            INSERT INTO book_transaction_history_archive (id, created_date, last_modified_date, created_by,
+                                                          last_modified_by, returned, return_approved, book_id, user_id)
+            SELECT * FROM moved
+            """;
+
+    private static final String MONTHLY_PARTITIONS = """
+            SELECT c.relname FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            JOIN pg_class p ON p.oid = i.inhparent
+            WHERE p.relname = 'book_transaction_history'
+            AND c.relname ~ '^book_transaction_history_p[0-9]{6}$'
+            """;
+
+    private static final DateTimeFormatter PARTITION_MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ClusterJobRunner clusterJobRunner;
+    private final ShardTemplate shardTemplate;
+
+    @Value("${application.history.retention-months:6}")
+    private int retentionMonths;
+    @Value("${application.history.archive-batch-size:1000}")
+    private int batchSize;
+    @Value("${application.history.partitions-ahead:3}")
+    private int partitionsAhead;
+
+    //one node of the cluster does the maintenance
+    @Scheduled(cron = "${application.history.archival-cron:0 0 4 * * *}")
+    public void scheduledRun() {
+        clusterJobRunner.runExclusive("history-archival", this::run);
+    }
+
+    //every book shard keeps its own partitions (the global database alone when sharding is disabled)
+    public void run() {
+        shardTemplate.scatter(shard -> {
+            createPartitions();
+            int archived = archive();
+            int dropped = dropEmptyPartitions();
+            log.info("history archival (shard {}): {} loans archived, {} empty partitions dropped", shard, archived, dropped);
+            return archived;
+        });
+    }
+
+    public void createPartitions() {
+        LocalDate month = LocalDate.now().withDayOfMonth(1);
+        for (int i = 0; i <= partitionsAhead; i++) {
+            jdbcTemplate.queryForList("SELECT create_book_transaction_history_partition(?)", month.plusMonths(i));
+        }
+        jdbcTemplate.queryForList("SELECT create_book_transaction_history_archive_partition(?)", month);
+    }
+
+    public int archive() {
+        LocalDateTime cutoff = cutoffMonth().atStartOfDay();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        int total = 0;
+        int moved;
+        do {
+            moved = transaction.execute(status -> jdbcTemplate.update(ARCHIVE_BATCH, cutoff, batchSize));
+            total += moved;
+        } while (moved == batchSize);
+        return total;
+    }
+
+    //only the months before the cutoff, and only once the open loans they held are returned
+    public int dropEmptyPartitions() {
+        String cutoff = cutoffMonth().format(PARTITION_MONTH);
+        List<String> partitions = jdbcTemplate.queryForList(MONTHLY_PARTITIONS, String.class);
+        int dropped = 0;
+        for (String partition : partitions) {
+            String month = partition.substring(partition.length() - 6);
+            if (month.compareTo(cutoff) >= 0) {
+                continue;
+            }
+            //the name comes from pg_class and matched the pattern above
+            Boolean empty = jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM " + partition + ")", Boolean.class);
+            if (Boolean.TRUE.equals(empty)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    private LocalDate cutoffMonth() {
+        return LocalDate.now().withDayOfMonth(1).minusMonths(retentionMonths);
+    }
+}
@@ -0,0 +1,23 @@
+package com.amr.book.history;
+
+import com.amr.book.common.EntityChange;
+
+import java.time.LocalDateTime;
+
+/**
+ * published by {@link BookTransactionHistoryListener} for every insert, update or delete of a loan.
+ * the previous flags are the loaded ones (false for a new loan), the current ones are false for a deleted loan
+ * */
+public record LoanChangedEvent(
+        Integer historyId,
+        Integer bookId,
+        Integer borrowerId,
+        Integer ownerId,
+        EntityChange change,
+        boolean returned,
+        boolean returnApproved,
+        boolean previousReturned,
+        boolean previousReturnApproved,
+        LocalDateTime createdDate
+) {
+}
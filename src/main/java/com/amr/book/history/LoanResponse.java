@@ -0,0 +1,25 @@
+package com.amr.book.history;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoanResponse {
+    private Integer id;
+    private Integer bookId;
+    private String title;
+    private String authorName;
+    private String isbn;
+    private boolean returned;
+    private boolean returnApproved;
+    private LocalDateTime createdDate;
+}
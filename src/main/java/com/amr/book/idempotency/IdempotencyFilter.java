@@ -0,0 +1,255 @@
+package com.amr.book.idempotency;
+
+import com.amr.book.handler.BusinessErrorCodes;
+import com.amr.book.handler.ExceptionResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Idempotency-Key support: the first request with a key runs, its response is stored (see IdempotencyStore)
+ * and the retries with the same key get that response back without running the controller again.
+ * the duplicates arriving while the first one still runs on this node wait for it instead of running
+ * in parallel, a duplicate running on another node gets a 409 to retry later.
+ * a key reused for a different request (method, path, query or body) is refused with a 422.
+ * the 5xx responses are not kept, a retry runs the request again
+ * applies to the write methods and to the GET paths with side effects (activate-account)
+ * */
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 200;
+    private static final Set<String> WRITE_METHODS = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    private final IdempotencyStore store;
+    private final ObjectMapper objectMapper;
+    private final List<String> getPaths;
+    private final List<String> excludedPaths;
+    private final long maxRequestSize;
+    private final int maxResponseSize;
+    private final Duration waitTimeout;
+    //the requests running on this node, by scope and key
+    private final ConcurrentHashMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyFilter(IdempotencyStore store,
+                             ObjectMapper objectMapper,
+                             @Value("${application.idempotency.get-paths:/auth/activate-account}") List<String> getPaths,
+                             @Value("${application.idempotency.excluded-paths:/auth/authenticate}") List<String> excludedPaths,
+                             @Value("${application.idempotency.max-request-size:1048576}") long maxRequestSize,
+                             @Value("${application.idempotency.max-response-size:65536}") int maxResponseSize,
+                             @Value("${application.idempotency.wait-timeout:30s}") Duration waitTimeout) {
+        this.store = store;
+        this.objectMapper = objectMapper;
+        this.getPaths = getPaths;
+        this.excludedPaths = excludedPaths;
+        this.maxRequestSize = maxRequestSize;
+        this.maxResponseSize = maxResponseSize;
+        this.waitTimeout = waitTimeout;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        if (request.getHeader(IDEMPOTENCY_KEY) == null) {
+            return true;
+        }
+        String path = request.getServletPath();
+        if (excludedPaths.contains(path)) {
+            return true;
+        }
+        return !WRITE_METHODS.contains(request.getMethod())
+                && !("GET".equals(request.getMethod()) && getPaths.contains(path));
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain
+    ) throws ServletException, IOException {
+        String key = request.getHeader(IDEMPOTENCY_KEY).trim();
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, null,
+                    IDEMPOTENCY_KEY + " must have between 1 and " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+        if (!bufferable(request)) {
+            //uploads and forms are not buffered, they run as if there was no key
+            filterChain.doFilter(request, response);
+            return;
+        }
+        byte[] body = request.getInputStream().readAllBytes();
+        HttpServletRequest cachedRequest = new CachedBodyRequest(request, body);
+        String fingerprint = fingerprint(request, body);
+        String scope = scope(fingerprint);
+        String id = scope + '\n' + key;
+
+        CompletableFuture<StoredResponse> running = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> first = inFlight.putIfAbsent(id, running);
+        if (first != null) {
+            awaitAndReplay(first, fingerprint, response);
+            return;
+        }
+        try {
+            StoredResponse stored = store.find(scope, key).orElse(null);
+            if (stored != null && stored.completed()) {
+                running.complete(stored);
+                replay(stored, fingerprint, response);
+                return;
+            }
+            if (!store.claim(scope, key, fingerprint)) {
+                //running on another node
+                running.complete(null);
+                writeInProgress(response);
+                return;
+            }
+            running.complete(execute(cachedRequest, response, filterChain, scope, key, fingerprint));
+        } catch (IOException | ServletException | RuntimeException e) {
+            running.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, running);
+        }
+    }
+
+    private StoredResponse execute(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain,
+                                   String scope, String key, String fingerprint) throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        try {
+            filterChain.doFilter(request, wrapper);
+        } catch (IOException | ServletException | RuntimeException e) {
+            store.release(scope, key);
+            throw e;
+        }
+        byte[] content = wrapper.getContentAsByteArray();
+        StoredResponse result;
+        if (content.length > maxResponseSize || wrapper.getStatus() >= 500) {
+            //too big to keep, or a server error the client should retry: the waiters of this node still get it
+            store.release(scope, key);
+            result = new StoredResponse(fingerprint, wrapper.getStatus(), wrapper.getContentType(), content, null);
+        } else {
+            //the 4xx are kept too: the request did run, its side effects (emails...) must not run again
+            result = store.complete(scope, key, fingerprint, wrapper.getStatus(), wrapper.getContentType(), content);
+        }
+        wrapper.copyBodyToResponse();
+        return result;
+    }
+
+    private void awaitAndReplay(CompletableFuture<StoredResponse> first, String fingerprint,
+                                HttpServletResponse response) throws IOException {
+        StoredResponse stored;
+        try {
+            stored = first.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stored = null;
+        } catch (ExecutionException | TimeoutException e) {
+            stored = null;
+        }
+        if (stored == null) {
+            writeInProgress(response);
+        } else {
+            replay(stored, fingerprint, response);
+        }
+    }
+
+    private void replay(StoredResponse stored, String fingerprint, HttpServletResponse response) throws IOException {
+        if (!stored.fingerprint().equals(fingerprint)) {
+            writeError(response, BusinessErrorCodes.IDEMPOTENCY_KEY_REUSED.getHttpStatus().value(),
+                    BusinessErrorCodes.IDEMPOTENCY_KEY_REUSED, null);
+            return;
+        }
+        response.setStatus(stored.status());
+        response.setHeader(IDEMPOTENT_REPLAYED, "true");
+        if (stored.contentType() != null) {
+            response.setContentType(stored.contentType());
+        }
+        if (stored.body() != null && stored.body().length > 0) {
+            response.setContentLength(stored.body().length);
+            response.getOutputStream().write(stored.body());
+        }
+    }
+
+    private void writeInProgress(HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        writeError(response, BusinessErrorCodes.IDEMPOTENT_REQUEST_IN_PROGRESS.getHttpStatus().value(),
+                BusinessErrorCodes.IDEMPOTENT_REQUEST_IN_PROGRESS, null);
+    }
+
+    private void writeError(HttpServletResponse response, int status, BusinessErrorCodes code, String error)
+            throws IOException {
+        response.setStatus(status);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), ExceptionResponse.builder()
+                .businessErrorCode(code == null ? null : code.getCode())
+                .businessErrorDescription(code == null ? null : code.getDescription())
+                .error(error)
+                .build());
+    }
+
+    private boolean bufferable(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        if (contentType != null && (contentType.startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)
+                || contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE))) {
+            return false;
+        }
+        long length = request.getContentLengthLong();
+        return length <= maxRequestSize && (length >= 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) == null);
+    }
+
+    //the keys of a user never meet the keys of another one. the anonymous calls (register, activate) have no user:
+    //their keys are scoped by the request itself, two clients sending the same key for different requests do not meet
+    private static String scope(String fingerprint) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken
+                || !authentication.isAuthenticated()) {
+            return "anonymous:" + fingerprint;
+        }
+        return "user:" + authentication.getName();
+    }
+
+    private static String fingerprint(HttpServletRequest request, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(request.getMethod().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ' ');
+            digest.update(request.getRequestURI().getBytes(StandardCharsets.UTF_8));
+            if (request.getQueryString() != null) {
+                digest.update((byte) '?');
+                digest.update(request.getQueryString().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) '\n');
+            digest.update(body);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
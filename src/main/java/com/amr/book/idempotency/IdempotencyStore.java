@@ -0,0 +1,153 @@
+package com.amr.book.idempotency;
+
+import com.amr.book.scheduling.ClusterJobRunner;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * the Idempotency-Key responses: the recent ones in a bounded LRU map of this node,
+ * all of them in the idempotency_key table so a retry landing on another node is replayed too.
+ * claiming a key is one upsert that only succeeds when the key is new or expired,
+ * so two nodes never run the same request
+ * */
+@Slf4j
+@Service
+public class IdempotencyStore {
+
+    private static final String CLAIM = """
+            INSERT INTO idempotency_key (scope, idem_key, fingerprint, status, created_at, expires_at)
+            VALUES (?, ?, ?, 0, now(), now() + make_interval(secs => ?))
+            ON CONFLICT (scope, idem_key) DO UPDATE SET
+                fingerprint = EXCLUDED.fingerprint,
+                status = 0,
+                content_type = NULL,
+                body = NULL,
+                created_at = now(),
+                expires_at = EXCLUDED.expires_at
+            WHERE idempotency_key.expires_at < now()
+            """;
+    private static final String COMPLETE = """
+            UPDATE idempotency_key
+            SET status = ?, content_type = ?, body = ?, expires_at = now() + make_interval(secs => ?)
+            WHERE scope = ? AND idem_key = ?
+            """;
+    private static final String FIND = """
+            SELECT fingerprint, status, content_type, body, expires_at FROM idempotency_key
+            WHERE scope = ? AND idem_key = ? AND expires_at >= now()
+            """;
+    private static final String PURGE_BATCH = """
+            DELETE FROM idempotency_key WHERE ctid IN (
+                SELECT ctid FROM idempotency_key WHERE expires_at < now() LIMIT ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ClusterJobRunner clusterJobRunner;
+    private final Duration ttl;
+    private final Duration inProgressTtl;
+    private final Map<String, StoredResponse> recent;
+
+    public IdempotencyStore(JdbcTemplate jdbcTemplate,
+                            ClusterJobRunner clusterJobRunner,
+                            @Value("${application.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${application.idempotency.in-progress-ttl:60s}") Duration inProgressTtl,
+                            @Value("${application.idempotency.memory-entries:10000}") int memoryEntries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clusterJobRunner = clusterJobRunner;
+        this.ttl = ttl;
+        this.inProgressTtl = inProgressTtl;
+        //access ordered, the least recently used response leaves first
+        this.recent = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    public Optional<StoredResponse> find(String scope, String key) {
+        String id = id(scope, key);
+        synchronized (recent) {
+            StoredResponse cached = recent.get(id);
+            if (cached != null) {
+                if (cached.expiresAt().isAfter(Instant.now())) {
+                    return Optional.of(cached);
+                }
+                recent.remove(id);
+            }
+        }
+        List<StoredResponse> rows = jdbcTemplate.query(FIND, (rs, rowNum) -> new StoredResponse(
+                rs.getString("fingerprint"),
+                rs.getInt("status"),
+                rs.getString("content_type"),
+                rs.getBytes("body"),
+                rs.getTimestamp("expires_at").toInstant()
+        ), scope, key);
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        StoredResponse stored = rows.get(0);
+        if (stored.completed()) {
+            remember(id, stored);
+        }
+        return Optional.of(stored);
+    }
+
+    /**
+     * @return false when the key is already running or answered, here or on another node
+     * */
+    public boolean claim(String scope, String key, String fingerprint) {
+        return jdbcTemplate.update(CLAIM, scope, key, fingerprint, seconds(inProgressTtl)) == 1;
+    }
+
+    public StoredResponse complete(String scope, String key, String fingerprint, int status,
+                                   String contentType, byte[] body) {
+        StoredResponse stored = new StoredResponse(fingerprint, status, contentType, body, Instant.now().plus(ttl));
+        jdbcTemplate.update(COMPLETE, status, contentType, body, seconds(ttl), scope, key);
+        remember(id(scope, key), stored);
+        return stored;
+    }
+
+    /**
+     * forgets a claim whose request failed or cannot be replayed, the next retry runs again
+     * */
+    public void release(String scope, String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_key WHERE scope = ? AND idem_key = ? AND status = 0", scope, key);
+    }
+
+    @Scheduled(cron = "${application.idempotency.purge-cron:0 */10 * * * *}")
+    public void purgeExpired() {
+        clusterJobRunner.runExclusive("idempotency-purge", () -> {
+            int total = 0;
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update(PURGE_BATCH, 1000);
+                total += deleted;
+            } while (deleted == 1000);
+            log.debug("{} expired idempotency keys purged", total);
+        });
+    }
+
+    private void remember(String id, StoredResponse stored) {
+        synchronized (recent) {
+            recent.put(id, stored);
+        }
+    }
+
+    private static String id(String scope, String key) {
+        return scope + '\n' + key;
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+}
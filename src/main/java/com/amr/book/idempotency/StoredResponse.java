@@ -0,0 +1,19 @@
+package com.amr.book.idempotency;
+
+import java.time.Instant;
+
+/**
+ * a response kept for an Idempotency-Key. status 0 means the request is still running
+ * */
+public record StoredResponse(
+        String fingerprint,
+        int status,
+        String contentType,
+        byte[] body,
+        Instant expiresAt
+) {
+
+    public boolean completed() {
+        return status > 0;
+    }
+}
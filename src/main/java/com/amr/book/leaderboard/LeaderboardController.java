@@ -0,0 +1,29 @@
+package com.amr.book.leaderboard;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("leaderboards")
+@RequiredArgsConstructor
+@Tag(name = "Leaderboards")
+public class LeaderboardController {
+
+    private final LeaderboardService service;
+
+    @GetMapping("/top-rated")
+    public ResponseEntity<List<LeaderboardEntry>> topRated() {
+        return ResponseEntity.ok(service.topRated());
+    }
+
+    @GetMapping("/most-borrowed")
+    public ResponseEntity<List<LeaderboardEntry>> mostBorrowedThisWeek() {
+        return ResponseEntity.ok(service.mostBorrowedThisWeek());
+    }
+}
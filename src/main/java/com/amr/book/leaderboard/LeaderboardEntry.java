@@ -0,0 +1,18 @@
+package com.amr.book.leaderboard;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class LeaderboardEntry {
+    private Integer bookId;
+    //average note for the top rated books, loans of the window for the most borrowed ones
+    private double score;
+    //feedbacks or loans behind the score
+    private long count;
+}
@@ -0,0 +1,222 @@
+package com.amr.book.leaderboard;
+
+import com.amr.book.common.EntityChange;
+import com.amr.book.common.IntIntHashMap;
+import com.amr.book.feedback.FeedbackChangedEvent;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * home screen leaderboards kept in memory: "top rated" (average Feedback.note, from a minimum number
+ * of feedbacks) and "most borrowed this week" (loans of the last 7 days, one bucket per day, the oldest
+ * day leaves the window at midnight). seeded by one query per shard at startup, then moved by the committed
+ * feedbacks and loans. the writers are serialized on this service, the readers never lock
+ * */
+@Slf4j
+@Service
+public class LeaderboardService {
+
+    private static final int WINDOW_DAYS = 7;
+
+    private static final String SEED = """
+            SELECT 'R' AS kind, f.book_id, sum(f.note) AS total, count(f.note) AS feedbacks, NULL AS day
+            FROM feedback f
+            WHERE f.book_id IS NOT NULL
+            GROUP BY f.book_id
+            UNION ALL
+            SELECT 'L', h.book_id, NULL, count(*), CAST(h.created_date AS date)
+            FROM book_transaction_history h
+            WHERE h.created_date >= ? AND h.book_id IS NOT NULL
+            GROUP BY h.book_id, CAST(h.created_date AS date)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardRouter shardRouter;
+    private final int minFeedbacks;
+
+    private final TopKLeaderboard topRated;
+    private final TopKLeaderboard mostBorrowed;
+
+    //rating sums and counts by book
+    private final IntIntHashMap ratingSlots = new IntIntHashMap(1024, -1);
+    private double[] ratingSums = new double[1024];
+    private int[] ratingCounts = new int[1024];
+    private int ratingSize;
+
+    //loans by book for each day of the window, bucket = epoch day % WINDOW_DAYS
+    private final IntIntHashMap[] dailyLoans = new IntIntHashMap[WINDOW_DAYS];
+    private final long[] bucketDays = new long[WINDOW_DAYS];
+    private IntIntHashMap weeklyLoans = new IntIntHashMap(1024, 0);
+
+    public LeaderboardService(JdbcTemplate jdbcTemplate, ShardRouter shardRouter,
+                              @Value("${application.leaderboards.size:10}") int size,
+                              @Value("${application.leaderboards.min-feedbacks:3}") int minFeedbacks) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardRouter = shardRouter;
+        this.minFeedbacks = minFeedbacks;
+        this.topRated = new TopKLeaderboard(size);
+        this.mostBorrowed = new TopKLeaderboard(size);
+        resetWindow();
+    }
+
+    public List<LeaderboardEntry> topRated() {
+        return topRated.snapshot();
+    }
+
+    public List<LeaderboardEntry> mostBorrowedThisWeek() {
+        return mostBorrowed.snapshot();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${application.leaderboards.reseed-cron:0 15 * * * *}")
+    public synchronized void seed() {
+        long start = System.currentTimeMillis();
+        long today = LocalDate.now().toEpochDay();
+        topRated.clear();
+        mostBorrowed.clear();
+        ratingSlots.forEach((bookId, slot) -> {
+            ratingSums[slot] = 0;
+            ratingCounts[slot] = 0;
+        });
+        resetWindow();
+        LocalDateTime since = LocalDate.now().minusDays(WINDOW_DAYS - 1).atStartOfDay();
+        //the rows of a book are all on its shard. one shard after the other: the callback moves the state
+        for (int shard : shardRouter.shards()) {
+            ShardContext.run(shard, () -> seed(since, today));
+        }
+        log.info("leaderboards seeded in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private void seed(LocalDateTime since, long today) {
+        jdbcTemplate.query(SEED, (RowCallbackHandler) rs -> {
+            int bookId = rs.getInt("book_id");
+            if ("R".equals(rs.getString("kind"))) {
+                int slot = ratingSlot(bookId);
+                ratingSums[slot] = rs.getDouble("total");
+                ratingCounts[slot] = rs.getInt("feedbacks");
+                topRated.update(bookId, averageScore(slot), ratingCounts[slot]);
+            } else {
+                addLoans(bookId, rs.getDate("day").toLocalDate().toEpochDay(), rs.getInt("feedbacks"), today);
+            }
+        }, since);
+    }
+
+    @TransactionalEventListener
+    public synchronized void onFeedbackChanged(FeedbackChangedEvent event) {
+        if (event.bookId() == null) {
+            return;
+        }
+        int slot = ratingSlot(event.bookId());
+        if (event.change() != EntityChange.CREATED && event.previousNote() != null) {
+            ratingSums[slot] -= event.previousNote();
+            ratingCounts[slot]--;
+        }
+        if (event.change() != EntityChange.DELETED && event.note() != null) {
+            ratingSums[slot] += event.note();
+            ratingCounts[slot]++;
+        }
+        topRated.update(event.bookId(), averageScore(slot), ratingCounts[slot]);
+    }
+
+    @TransactionalEventListener
+    public synchronized void onLoanChanged(LoanChangedEvent event) {
+        if (event.bookId() == null || event.change() == EntityChange.UPDATED) {
+            return;
+        }
+        LocalDateTime createdDate = event.createdDate() == null ? LocalDateTime.now() : event.createdDate();
+        addLoans(event.bookId(), createdDate.toLocalDate().toEpochDay(),
+                event.change() == EntityChange.CREATED ? 1 : -1, LocalDate.now().toEpochDay());
+    }
+
+    //slides the window at midnight even when nobody borrows anything
+    @Scheduled(cron = "${application.leaderboards.window-cron:0 * * * * *}")
+    public synchronized void slideWindow() {
+        if (advanceWindow(LocalDate.now().toEpochDay())) {
+            mostBorrowed.recompute();
+        }
+    }
+
+    private void addLoans(int bookId, long day, int loans, long today) {
+        if (advanceWindow(today)) {
+            mostBorrowed.recompute();
+        }
+        if (day <= today - WINDOW_DAYS || day > today) {
+            return;
+        }
+        int bucket = (int) (day % WINDOW_DAYS);
+        dailyLoans[bucket].addTo(bookId, loans);
+        int total = weeklyLoans.addTo(bookId, loans);
+        mostBorrowed.update(bookId, total > 0 ? total : TopKLeaderboard.UNRANKED, Math.max(total, 0));
+    }
+
+    /**
+     * empties the buckets of the days that left the window and takes their loans out of the weekly totals
+     * @return true when the totals changed
+     * */
+    private boolean advanceWindow(long today) {
+        boolean changed = false;
+        for (long day = today - WINDOW_DAYS + 1; day <= today; day++) {
+            int bucket = (int) (day % WINDOW_DAYS);
+            if (bucketDays[bucket] == day) {
+                continue;
+            }
+            IntIntHashMap expired = dailyLoans[bucket];
+            if (expired.size() > 0) {
+                expired.forEach((bookId, loans) -> {
+                    int total = weeklyLoans.addTo(bookId, -loans);
+                    mostBorrowed.update(bookId, total > 0 ? total : TopKLeaderboard.UNRANKED, Math.max(total, 0));
+                });
+                changed = true;
+            }
+            dailyLoans[bucket] = new IntIntHashMap(64, 0);
+            bucketDays[bucket] = day;
+        }
+        return changed;
+    }
+
+    private void resetWindow() {
+        long today = LocalDate.now().toEpochDay();
+        for (int i = 0; i < WINDOW_DAYS; i++) {
+            dailyLoans[i] = new IntIntHashMap(64, 0);
+        }
+        //every bucket belongs to one of the last 7 days
+        for (long day = today - WINDOW_DAYS + 1; day <= today; day++) {
+            bucketDays[(int) (day % WINDOW_DAYS)] = day;
+        }
+        weeklyLoans = new IntIntHashMap(1024, 0);
+    }
+
+    private int ratingSlot(int bookId) {
+        int slot = ratingSlots.get(bookId);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (ratingSize == ratingSums.length) {
+            ratingSums = Arrays.copyOf(ratingSums, ratingSize * 2);
+            ratingCounts = Arrays.copyOf(ratingCounts, ratingSize * 2);
+        }
+        ratingSlots.put(bookId, ratingSize);
+        return ratingSize++;
+    }
+
+    private double averageScore(int slot) {
+        return ratingCounts[slot] >= minFeedbacks && ratingCounts[slot] > 0
+                ? ratingSums[slot] / ratingCounts[slot]
+                : TopKLeaderboard.UNRANKED;
+    }
+}
@@ -0,0 +1,147 @@
+package com.amr.book.leaderboard;
+
+import com.amr.book.common.IntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the K best books by score. the scores of every candidate are kept (primitive arrays, one slot per book)
+ * but only the K best are ordered: an update that does not reach the top K costs a comparison,
+ * the full selection only runs when a book of the top K loses score.
+ * one writer at a time (the caller synchronizes), the readers get an immutable snapshot without locking
+ * */
+final class TopKLeaderboard {
+
+    //score of a book that must not be ranked (not enough feedbacks, no loan in the window...)
+    static final double UNRANKED = Double.NEGATIVE_INFINITY;
+
+    private final int k;
+    private IntIntHashMap slots = new IntIntHashMap(1024, -1);
+    private int[] ids = new int[1024];
+    private double[] scores = new double[1024];
+    private long[] counts = new long[1024];
+    private int size;
+    //slots of the top K, best first
+    private int[] top = new int[0];
+    private volatile List<LeaderboardEntry> snapshot = List.of();
+
+    TopKLeaderboard(int k) {
+        this.k = k;
+    }
+
+    List<LeaderboardEntry> snapshot() {
+        return snapshot;
+    }
+
+    void update(int id, double score, long count) {
+        int slot = slots.get(id);
+        if (slot < 0) {
+            slot = add(id);
+        }
+        double previous = scores[slot];
+        scores[slot] = score;
+        counts[slot] = count;
+        int position = positionInTop(slot);
+        if (position >= 0) {
+            if (score < previous) {
+                //something outside the top K may now be better
+                recompute();
+            } else {
+                sortTop();
+            }
+        } else if (score != UNRANKED && (top.length < k || score > scores[top[top.length - 1]])) {
+            int[] updated = top.length < k ? Arrays.copyOf(top, top.length + 1) : top.clone();
+            updated[updated.length - 1] = slot;
+            top = updated;
+            sortTop();
+        } else {
+            return;
+        }
+        publish();
+    }
+
+    double score(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? UNRANKED : scores[slot];
+    }
+
+    void clear() {
+        slots = new IntIntHashMap(1024, -1);
+        size = 0;
+        top = new int[0];
+        publish();
+    }
+
+    /**
+     * full selection of the K best, after a top K book lost score or after a bulk change
+     * */
+    void recompute() {
+        int[] best = new int[Math.min(k, size)];
+        int filled = 0;
+        for (int slot = 0; slot < size; slot++) {
+            double score = scores[slot];
+            if (score == UNRANKED) {
+                continue;
+            }
+            if (filled < best.length) {
+                best[filled++] = slot;
+                siftUp(best, filled - 1);
+            } else if (best.length > 0 && score > scores[best[filled - 1]]) {
+                best[filled - 1] = slot;
+                siftUp(best, filled - 1);
+            }
+        }
+        top = Arrays.copyOf(best, filled);
+        publish();
+    }
+
+    private int add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        ids[size] = id;
+        scores[size] = UNRANKED;
+        slots.put(id, size);
+        return size++;
+    }
+
+    private int positionInTop(int slot) {
+        for (int i = 0; i < top.length; i++) {
+            if (top[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //K is small, insertion sort of the top slots by score
+    private void sortTop() {
+        int[] sorted = top.clone();
+        for (int i = 1; i < sorted.length; i++) {
+            siftUp(sorted, i);
+        }
+        top = sorted;
+    }
+
+    private void siftUp(int[] sorted, int index) {
+        int slot = sorted[index];
+        while (index > 0 && scores[sorted[index - 1]] < scores[slot]) {
+            sorted[index] = sorted[index - 1];
+            index--;
+        }
+        sorted[index] = slot;
+    }
+
+    private void publish() {
+        List<LeaderboardEntry> entries = new ArrayList<>(top.length);
+        for (int slot : top) {
+            entries.add(new LeaderboardEntry(ids[slot], scores[slot], counts[slot]));
+        }
+        snapshot = Collections.unmodifiableList(entries);
+    }
+}
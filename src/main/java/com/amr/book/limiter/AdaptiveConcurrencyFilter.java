@@ -0,0 +1,113 @@
+package com.amr.book.limiter;
+
+import com.amr.book.handler.BusinessErrorCodes;
+import com.amr.book.handler.ExceptionResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * adaptive concurrency limit of the requests, first filter of the security chain (see SecurityConfig):
+ * the /auth/** requests and the authenticated api have their own {@link GradientLimit}, a request over
+ * the limit of its partition gets a 503 at once instead of waiting for a tomcat thread or a connection.
+ * when the database slows down the latency grows, the limits shrink and the requests let in keep a
+ * normal latency instead of all of them timing out.
+ * metrics: http.server.concurrency.limit, http.server.concurrency.in-flight and
+ * http.server.concurrency.rejected, tagged by partition.
+ * excluded-paths is a comma separated string: @Value does not bind a yaml list
+ * */
+@Component
+public class AdaptiveConcurrencyFilter extends OncePerRequestFilter {
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final List<String> excludedPaths;
+    private final LimiterPartition auth;
+    private final LimiterPartition api;
+
+    public AdaptiveConcurrencyFilter(ObjectMapper objectMapper,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${application.concurrency-limit.enabled:true}") boolean enabled,
+                                     @Value("${application.concurrency-limit.excluded-paths:/actuator/}") List<String> excludedPaths,
+                                     @Value("${application.concurrency-limit.smoothing:0.2}") double smoothing,
+                                     @Value("${application.concurrency-limit.long-window:600}") int longWindow,
+                                     @Value("${application.concurrency-limit.short-window:10}") int shortWindow,
+                                     @Value("${application.concurrency-limit.auth.initial-limit:20}") int authInitialLimit,
+                                     @Value("${application.concurrency-limit.auth.min-limit:4}") int authMinLimit,
+                                     @Value("${application.concurrency-limit.auth.max-limit:100}") int authMaxLimit,
+                                     @Value("${application.concurrency-limit.api.initial-limit:50}") int apiInitialLimit,
+                                     @Value("${application.concurrency-limit.api.min-limit:8}") int apiMinLimit,
+                                     @Value("${application.concurrency-limit.api.max-limit:200}") int apiMaxLimit) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.excludedPaths = excludedPaths;
+        this.auth = new LimiterPartition("auth",
+                new GradientLimit(authInitialLimit, authMinLimit, authMaxLimit, smoothing, longWindow, shortWindow),
+                meterRegistry);
+        this.api = new LimiterPartition("api",
+                new GradientLimit(apiInitialLimit, apiMinLimit, apiMaxLimit, smoothing, longWindow, shortWindow),
+                meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        if (!enabled) {
+            return true;
+        }
+        String path = path(request);
+        //the health probes answer even under overload
+        return excludedPaths.stream().anyMatch(path::startsWith);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain
+    ) throws ServletException, IOException {
+        LimiterPartition partition = path(request).startsWith("/auth/") ? auth : api;
+        if (!partition.tryAcquire()) {
+            reject(response);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            //a failed request is a sample too, a database timeout is what the limit has to see
+            if (request.isAsyncStarted()) {
+                partition.releaseWithoutSample();
+            } else {
+                partition.release(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void reject(HttpServletResponse response) throws IOException {
+        BusinessErrorCodes code = BusinessErrorCodes.SERVER_OVERLOADED;
+        response.setStatus(code.getHttpStatus().value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), ExceptionResponse.builder()
+                .businessErrorCode(code.getCode())
+                .businessErrorDescription(code.getDescription())
+                .build());
+    }
+
+    //the path after the context path (/api/v1)
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+}
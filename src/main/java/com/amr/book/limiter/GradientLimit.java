@@ -0,0 +1,73 @@
+package com.amr.book.limiter;
+
+/**
+ * concurrency limit driven by the latency (the gradient algorithm of Netflix concurrency-limits):
+ * the lowest recent latency seen is the latency without queueing, when the recent latency goes
+ * above it (with some tolerance) the limit shrinks in proportion, at most by half per sample,
+ * otherwise it grows by about sqrt(limit). the limit does not grow while less than half of it is used.
+ * the lowest latency drifts up slowly so a lasting change (bigger tables) becomes the new normal
+ * */
+final class GradientLimit {
+
+    //latency increase accepted before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double drift;
+    private final MovingAverage shortLatency;
+    private double baseline = Double.MAX_VALUE;
+
+    private volatile double limit;
+
+    GradientLimit(int initialLimit, int minLimit, int maxLimit, double smoothing, int longWindow, int shortWindow) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        //the baseline can double in about 7 long windows
+        this.drift = 0.1 / longWindow;
+        this.shortLatency = new MovingAverage(shortWindow);
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    synchronized void onSample(long latencyNanos, int inFlight) {
+        double recent = shortLatency.add(latencyNanos);
+        baseline = Math.min(baseline == Double.MAX_VALUE ? recent : baseline * (1 + drift), recent);
+        double current = limit;
+        if (inFlight < current / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baseline / recent));
+        double next = current * gradient + Math.sqrt(current);
+        next = current * (1 - smoothing) + next * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    //plain average of the first samples, exponential afterwards
+    private static final class MovingAverage {
+        private final int window;
+        private final double factor;
+        private int count;
+        private double value;
+
+        private MovingAverage(int window) {
+            this.window = window;
+            this.factor = 2.0 / (window + 1);
+        }
+
+        double add(double sample) {
+            if (count < window) {
+                count++;
+                value += (sample - value) / count;
+            } else {
+                value += (sample - value) * factor;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.amr.book.limiter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the requests of one partition in flight against its own adaptive limit
+ * */
+final class LimiterPartition {
+
+    private final GradientLimit limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejected;
+
+    LimiterPartition(String name, GradientLimit limit, MeterRegistry meterRegistry) {
+        this.limit = limit;
+        this.rejected = Counter.builder("http.server.concurrency.rejected")
+                .description("requests refused with 503 because the concurrency limit was reached")
+                .tag("partition", name)
+                .register(meterRegistry);
+        Gauge.builder("http.server.concurrency.limit", limit, GradientLimit::limit)
+                .description("current adaptive concurrency limit")
+                .tag("partition", name)
+                .register(meterRegistry);
+        Gauge.builder("http.server.concurrency.in-flight", inFlight, AtomicInteger::get)
+                .description("requests being served")
+                .tag("partition", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return false when the limit is reached, the request has to be refused
+     * */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.limit()) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long latencyNanos) {
+        limit.onSample(latencyNanos, inFlight.getAndDecrement());
+    }
+
+    //an async request (sse, streamed export): the thread is free, its duration says nothing about the load
+    void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+}
@@ -0,0 +1,154 @@
+package com.amr.book.monitoring;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL round trips per http request: recorded by endpoint in the metrics
+ * (http.server.requests.sql.statements and http.server.requests.sql.time, tagged by method and uri),
+ * a warning when an endpoint goes over the statement budget, and in dev the X-Sql-Statements and
+ * X-Sql-Time-Ms response headers. runs before the security chain so the user lookup of the jwt filter is counted
+ * */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "application.sql-budget.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlBudgetFilter extends OncePerRequestFilter {
+
+    public static final String STATEMENTS_HEADER = "X-Sql-Statements";
+    public static final String TIME_HEADER = "X-Sql-Time-Ms";
+
+    private final MeterRegistry meterRegistry;
+    private final int maxStatements;
+    private final boolean exposeHeaders;
+
+    public SqlBudgetFilter(MeterRegistry meterRegistry,
+                           @Value("${application.sql-budget.max-statements:10}") int maxStatements,
+                           @Value("${application.sql-budget.expose-headers:false}") boolean exposeHeaders) {
+        this.meterRegistry = meterRegistry;
+        this.maxStatements = maxStatements;
+        this.exposeHeaders = exposeHeaders;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain
+    ) throws ServletException, IOException {
+        SqlRoundTrips roundTrips = SqlRoundTrips.start();
+        HeaderWritingResponse headerWriting = exposeHeaders ? new HeaderWritingResponse(response, roundTrips) : null;
+        try {
+            filterChain.doFilter(request, headerWriting == null ? response : headerWriting);
+        } finally {
+            SqlRoundTrips.stop();
+            if (headerWriting != null) {
+                headerWriting.writeHeaders();
+            }
+            record(request, roundTrips);
+        }
+    }
+
+    private void record(HttpServletRequest request, SqlRoundTrips roundTrips) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        //no handler (404, rejected by security): one tag value instead of one per url
+        String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+        String method = request.getMethod();
+        DistributionSummary.builder("http.server.requests.sql.statements")
+                .description("SQL statements sent to the database per http request")
+                .tag("method", method)
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(roundTrips.statements());
+        Timer.builder("http.server.requests.sql.time")
+                .description("time spent in the database per http request")
+                .tag("method", method)
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(roundTrips.elapsedMillis(), TimeUnit.MILLISECONDS);
+        if (roundTrips.statements() > maxStatements) {
+            log.warn("{} {} ran {} SQL statements in {} ms, the budget is {}",
+                    method, uri, roundTrips.statements(), roundTrips.elapsedMillis(), maxStatements);
+        }
+    }
+
+    /**
+     * the headers must be set before the body commits the response: they are written on the first
+     * access to the body, the queries of a controller run before its response is rendered
+     * */
+    private static final class HeaderWritingResponse extends HttpServletResponseWrapper {
+
+        private final SqlRoundTrips roundTrips;
+        private boolean written;
+
+        private HeaderWritingResponse(HttpServletResponse response, SqlRoundTrips roundTrips) {
+            super(response);
+            this.roundTrips = roundTrips;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeaders();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            writeHeaders();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            writeHeaders();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            writeHeaders();
+            super.sendRedirect(location);
+        }
+
+        private void writeHeaders() {
+            if (written || isCommitted()) {
+                return;
+            }
+            written = true;
+            setHeader(STATEMENTS_HEADER, Integer.toString(roundTrips.statements()));
+            setHeader(TIME_HEADER, Long.toString(roundTrips.elapsedMillis()));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.amr.book.monitoring;
+
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * wraps the DataSource in a datasource-proxy so every statement is counted, the JPA ones
+ * and the JdbcTemplate ones alike (a hibernate StatementInspector would only see the first)
+ * */
+@Configuration
+@ConditionalOnProperty(name = "application.sql-budget.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlRoundTripConfig {
+
+    //static: a BeanPostProcessor is created before the other beans of the configuration
+    @Bean
+    public static BeanPostProcessor sqlRoundTripDataSourceProxy() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof ProxyDataSource)) {
+                    return ProxyDataSourceBuilder.create(dataSource)
+                            .name(beanName)
+                            .listener(new SqlRoundTripListener())
+                            .build();
+                }
+                return bean;
+            }
+        };
+    }
+}
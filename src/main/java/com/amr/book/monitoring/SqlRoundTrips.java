@@ -0,0 +1,43 @@
+package com.amr.book.monitoring;
+
+/**
+ * the SQL statements sent to the database by the current http request, counted on its thread.
+ * the background jobs, the async email and the streamed exports run on other threads and are not counted
+ * */
+public final class SqlRoundTrips {
+
+    private static final ThreadLocal<SqlRoundTrips> CURRENT = new ThreadLocal<>();
+
+    private int statements;
+    private long elapsedMillis;
+
+    private SqlRoundTrips() {
+    }
+
+    static SqlRoundTrips start() {
+        SqlRoundTrips roundTrips = new SqlRoundTrips();
+        CURRENT.set(roundTrips);
+        return roundTrips;
+    }
+
+    static void stop() {
+        CURRENT.remove();
+    }
+
+    //one execute call, a jdbc batch included, is one round trip
+    static void record(long elapsedMillis) {
+        SqlRoundTrips roundTrips = CURRENT.get();
+        if (roundTrips != null) {
+            roundTrips.statements++;
+            roundTrips.elapsedMillis += elapsedMillis;
+        }
+    }
+
+    public int statements() {
+        return statements;
+    }
+
+    public long elapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -0,0 +1,21 @@
+package com.amr.book.notification;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Notification {
+    private NotificationType type;
+    private Integer bookId;
+    private Integer fromUserId;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,34 @@
+package com.amr.book.notification;
+
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("notifications")
+@RequiredArgsConstructor
+@Tag(name = "Notifications")
+public class NotificationController {
+
+    private final NotificationEmitterRegistry registry;
+
+    //authenticated by the JwtFilter like the other endpoints, the stream then stays open without a thread
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        SseEmitter emitter = registry.register(user.getId());
+        if (emitter == null) {
+            //no room on this node or too many tabs for this user, the client retries later
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+}
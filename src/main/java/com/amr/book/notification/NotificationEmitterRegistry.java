@@ -0,0 +1,278 @@
+package com.amr.book.notification;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the open SSE streams by user id.
+ * an idle stream is only an async request in tomcat, no thread is attached to it.
+ * publishing never writes to the socket: the notification goes into the bounded buffer of the client
+ * and a small pool drains the buffers. a client whose buffer is full is too slow, it is dropped
+ * and has to reconnect. the writes are blocking: a client that stops reading (full tcp window)
+ * holds a sender until the write times out in tomcat, so a write that takes longer than the
+ * write timeout drops the client and the pool gets one more thread while that write is stuck,
+ * the other clients keep being served
+ * */
+@Component
+public class NotificationEmitterRegistry {
+
+    //queued after the notifications, written as an SSE comment to keep the proxies from closing idle streams
+    private static final Object HEARTBEAT = new Object();
+
+    private final Map<Integer, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    //the subscribers with a write in progress
+    private final Set<Subscriber> sending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor senders;
+    private final int senderThreads;
+    //writes blocked past the write timeout, guarded by this
+    private int stuckWrites;
+
+    @Value("${application.notifications.max-connections:50000}")
+    private int maxConnections;
+    @Value("${application.notifications.max-connections-per-user:5}")
+    private int maxConnectionsPerUser;
+    @Value("${application.notifications.client-buffer-size:32}")
+    private int clientBufferSize;
+    @Value("${application.notifications.timeout:1800000}")
+    private long timeout;
+    @Value("${application.notifications.write-timeout:5000}")
+    private long writeTimeout;
+
+    public NotificationEmitterRegistry(@Value("${application.notifications.sender-threads:4}") int senderThreads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.senderThreads = senderThreads;
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "sse-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the emitter of the new stream or null when the node or the user has no room left
+     * */
+    public SseEmitter register(Integer userId) {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(userId, emitter, new ArrayBlockingQueue<>(clientBufferSize));
+        AtomicBoolean added = new AtomicBoolean();
+        //inside compute so a concurrent remove() cannot drop the list we are adding to
+        subscribers.compute(userId, (id, userSubscribers) -> {
+            List<Subscriber> list = userSubscribers == null ? new CopyOnWriteArrayList<>() : userSubscribers;
+            if (list.size() < maxConnectionsPerUser) {
+                list.add(subscriber);
+                added.set(true);
+            }
+            return list.isEmpty() ? null : list;
+        });
+        if (!added.get()) {
+            connections.decrementAndGet();
+            return null;
+        }
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(error -> remove(subscriber));
+        return emitter;
+    }
+
+    public void publish(Integer userId, Notification notification) {
+        if (userId == null) {
+            return;
+        }
+        List<Subscriber> userSubscribers = subscribers.get(userId);
+        if (userSubscribers != null) {
+            userSubscribers.forEach(subscriber -> enqueue(subscriber, notification));
+        }
+    }
+
+    @Scheduled(fixedRateString = "${application.notifications.heartbeat-interval:25000}")
+    public void heartbeat() {
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(s -> enqueue(s, HEARTBEAT)));
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * drops the clients whose write has been blocked for longer than the write timeout.
+     * only marks them: the emitter is locked by the blocked send, so the stream is completed with an
+     * error (the EventSource of the browser reconnects) by the sender when tomcat gives up on the socket.
+     * this runs on the scheduler thread and must never wait for an emitter
+     * */
+    @Scheduled(fixedDelayString = "${application.notifications.write-check-interval:1000}")
+    public void checkWrites() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : sending) {
+            if (markStuck(subscriber, now - TimeUnit.MILLISECONDS.toNanos(writeTimeout))) {
+                dropped.incrementAndGet();
+                remove(subscriber);
+            }
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, Object item) {
+        if (subscriber.closed.get()) {
+            return;
+        }
+        if (!subscriber.buffer.offer(item)) {
+            //slow consumer: forget it, the drain completes the stream once the write in progress returns
+            dropped.incrementAndGet();
+            remove(subscriber);
+        }
+        if (subscriber.draining.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            Object item;
+            while (!subscriber.closed.get() && (item = subscriber.buffer.poll()) != null) {
+                send(subscriber, item);
+            }
+        } catch (IOException | IllegalStateException e) {
+            //client went away, the container calls onError / onCompletion as well
+            remove(subscriber);
+        } finally {
+            subscriber.draining.set(false);
+        }
+        if (subscriber.closed.get()) {
+            complete(subscriber);
+            return;
+        }
+        //an item offered after the last poll but before draining was reset would otherwise wait for the next one
+        if (!subscriber.buffer.isEmpty() && subscriber.draining.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void send(Subscriber subscriber, Object item) throws IOException {
+        sending.add(subscriber);
+        subscriber.sendingSince = System.nanoTime();
+        try {
+            if (item == HEARTBEAT) {
+                subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+            } else {
+                Notification notification = (Notification) item;
+                subscriber.emitter.send(SseEmitter.event()
+                        .name(notification.getType().name())
+                        .data(notification));
+            }
+        } finally {
+            sending.remove(subscriber);
+            synchronized (subscriber) {
+                subscriber.sendingSince = 0;
+                if (subscriber.stuck) {
+                    //the extra sender given when the write got stuck is not needed anymore
+                    resizeSenders(-1);
+                }
+            }
+        }
+    }
+
+    //under the lock of the subscriber so a write that returns at that moment gives the extra sender back
+    private boolean markStuck(Subscriber subscriber, long startedBefore) {
+        synchronized (subscriber) {
+            long since = subscriber.sendingSince;
+            if (since == 0 || since - startedBefore > 0 || subscriber.stuck) {
+                return false;
+            }
+            subscriber.stuck = true;
+            resizeSenders(1);
+            return true;
+        }
+    }
+
+    //one more thread per stuck write, up to 4 times the configured senders
+    private synchronized void resizeSenders(int delta) {
+        int stuck = stuckWrites + delta;
+        int size = senderThreads + Math.min(stuck, senderThreads * 4);
+        stuckWrites = stuck;
+        if (size > senders.getMaximumPoolSize()) {
+            senders.setMaximumPoolSize(size);
+            senders.setCorePoolSize(size);
+        } else if (size < senders.getMaximumPoolSize()) {
+            senders.setCorePoolSize(size);
+            senders.setMaximumPoolSize(size);
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return;
+        }
+        connections.decrementAndGet();
+        subscriber.buffer.clear();
+        subscribers.computeIfPresent(subscriber.userId, (id, userSubscribers) -> {
+            userSubscribers.remove(subscriber);
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+    }
+
+    //on the sender thread, after its send returned
+    private void complete(Subscriber subscriber) {
+        boolean stuck;
+        synchronized (subscriber) {
+            stuck = subscriber.stuck;
+        }
+        try {
+            if (stuck) {
+                subscriber.emitter.completeWithError(new IOException("write blocked for more than " + writeTimeout + " ms"));
+            } else {
+                subscriber.emitter.complete();
+            }
+        } catch (IllegalStateException e) {
+            //already completed by the container
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(s -> s.emitter.complete()));
+        senders.shutdown();
+    }
+
+    private static final class Subscriber {
+        private final Integer userId;
+        private final SseEmitter emitter;
+        private final Queue<Object> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        //System.nanoTime() when the write in progress started, 0 when there is none
+        private volatile long sendingSince;
+        private boolean stuck;
+
+        private Subscriber(Integer userId, SseEmitter emitter, Queue<Object> buffer) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.amr.book.notification;
+
+import com.amr.book.common.EntityChange;
+import com.amr.book.feedback.FeedbackChangedEvent;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.waitlist.WaitlistOfferedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * pushes the loan and feedback changes to the connected users once the write is committed
+ * (nothing is sent for a rolled back transaction)
+ * */
+@Component
+@RequiredArgsConstructor
+public class NotificationListener {
+
+    private final NotificationEmitterRegistry registry;
+
+    @TransactionalEventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        if (event.change() != EntityChange.UPDATED) {
+            return;
+        }
+        if (event.returned() && !event.previousReturned()) {
+            registry.publish(event.ownerId(), notification(NotificationType.BOOK_RETURNED, event.bookId(), event.borrowerId()));
+        }
+        if (event.returnApproved() && !event.previousReturnApproved()) {
+            registry.publish(event.borrowerId(), notification(NotificationType.RETURN_APPROVED, event.bookId(), event.ownerId()));
+        }
+    }
+
+    @TransactionalEventListener
+    public void onFeedbackChanged(FeedbackChangedEvent event) {
+        if (event.change() == EntityChange.CREATED) {
+            registry.publish(event.ownerId(), notification(NotificationType.FEEDBACK_RECEIVED, event.bookId(), event.authorId()));
+        }
+    }
+
+    //published after the offer is written, there is no transaction to wait for
+    @EventListener
+    public void onWaitlistOffered(WaitlistOfferedEvent event) {
+        registry.publish(event.userId(), notification(NotificationType.WAITLIST_OFFER, event.bookId(), null));
+    }
+
+    private Notification notification(NotificationType type, Integer bookId, Integer fromUserId) {
+        return Notification.builder()
+                .type(type)
+                .bookId(bookId)
+                .fromUserId(fromUserId)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+}
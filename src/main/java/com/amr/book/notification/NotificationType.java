@@ -0,0 +1,8 @@
+package com.amr.book.notification;
+
+public enum NotificationType {
+    BOOK_RETURNED,
+    RETURN_APPROVED,
+    FEEDBACK_RECEIVED,
+    WAITLIST_OFFER
+}
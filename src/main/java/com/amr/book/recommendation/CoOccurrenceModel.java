@@ -0,0 +1,122 @@
+package com.amr.book.recommendation;
+
+import com.amr.book.common.IntIntHashMap;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * "borrowed together" model: for every book the top N books borrowed by the same readers.
+ * a neighbour is one long, the count in the high 32 bits and the book id in the low ones,
+ * so the list of a book is a small long[] sorted by count. the book index is immutable,
+ * the lists are replaced (copy on write) by the incremental updates so reads never lock
+ * */
+public final class CoOccurrenceModel {
+
+    private final IntIntHashMap bookIndex;
+    private final int[] bookIds;
+    private final AtomicReferenceArray<long[]> neighbours;
+    @Getter
+    private final int topN;
+    @Getter
+    private final int users;
+    @Getter
+    private final int loans;
+    @Getter
+    private final long buildMillis;
+    @Getter
+    private final LocalDateTime builtAt;
+
+    CoOccurrenceModel(IntIntHashMap bookIndex, int[] bookIds, AtomicReferenceArray<long[]> neighbours,
+                      int topN, int users, int loans, long buildMillis) {
+        this.bookIndex = bookIndex;
+        this.bookIds = bookIds;
+        this.neighbours = neighbours;
+        this.topN = topN;
+        this.users = users;
+        this.loans = loans;
+        this.buildMillis = buildMillis;
+        this.builtAt = LocalDateTime.now();
+    }
+
+    static CoOccurrenceModel empty(int topN) {
+        return new CoOccurrenceModel(new IntIntHashMap(0, -1), new int[0], new AtomicReferenceArray<>(0),
+                topN, 0, 0, 0);
+    }
+
+    static long pack(int count, int bookId) {
+        return ((long) count << 32) | (bookId & 0xFFFFFFFFL);
+    }
+
+    static int bookId(long neighbour) {
+        return (int) neighbour;
+    }
+
+    static int count(long neighbour) {
+        return (int) (neighbour >>> 32);
+    }
+
+    /**
+     * @return the packed neighbours of the book, highest count first (empty for an unknown book)
+     * */
+    public long[] neighbours(int bookId) {
+        int index = bookIndex.get(bookId);
+        return index < 0 ? new long[0] : neighbours.get(index);
+    }
+
+    public int books() {
+        return bookIds.length;
+    }
+
+    /**
+     * one more reader borrowed both books. a pair that is not in the list only gets in while the
+     * list is not full: its real count is unknown here, the next rebuild puts it at its place.
+     * books created after the build are ignored until the next rebuild
+     * */
+    synchronized void increment(int bookId, int otherBookId) {
+        int index = bookIndex.get(bookId);
+        if (index < 0 || bookId == otherBookId) {
+            return;
+        }
+        long[] current = neighbours.get(index);
+        long[] updated = null;
+        for (int i = 0; i < current.length; i++) {
+            if (bookId(current[i]) == otherBookId) {
+                updated = current.clone();
+                updated[i] = pack(count(current[i]) + 1, otherBookId);
+                break;
+            }
+        }
+        if (updated == null) {
+            if (current.length >= topN) {
+                return;
+            }
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = pack(1, otherBookId);
+        }
+        sortDescending(updated);
+        neighbours.set(index, updated);
+    }
+
+    static void sortDescending(long[] values) {
+        Arrays.sort(values);
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            long tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    /**
+     * the index, the id array and the neighbour lists (array headers included)
+     * */
+    public long estimatedBytes() {
+        long bytes = bookIndex.estimatedBytes() + 16L + 4L * bookIds.length + 16L + 8L * bookIds.length;
+        for (int i = 0; i < neighbours.length(); i++) {
+            bytes += 16L + 8L * neighbours.get(i).length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,219 @@
+package com.amr.book.recommendation;
+
+import com.amr.book.common.IntIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * collects the distinct (user, book) pairs of the scan, ordered by user, then computes the top N
+ * neighbours of every book in parallel. everything is kept in int arrays:
+ * the baskets (books of a user) and the inverted index (baskets of a book) are CSR arrays
+ * (one offsets array and one values array) and every worker counts in a dense scratch array
+ * */
+final class CoOccurrenceModelBuilder {
+
+    //leaf size of the fork/join split, in books
+    private static final int BOOKS_PER_TASK = 64;
+
+    private int[] userIds = new int[1024];
+    private int[] bookIds = new int[1024];
+    private int size;
+
+    /**
+     * the pairs have to come grouped by user
+     * */
+    void add(int userId, int bookId) {
+        if (size == userIds.length) {
+            userIds = Arrays.copyOf(userIds, size * 2);
+            bookIds = Arrays.copyOf(bookIds, size * 2);
+        }
+        userIds[size] = userId;
+        bookIds[size] = bookId;
+        size++;
+    }
+
+    /**
+     * one builder with the pairs of the given ones (one per shard), still grouped by user.
+     * the pairs of a user can be on several shards: the groups are taken in ascending user order,
+     * so every builder has to be ordered by user
+     * */
+    static CoOccurrenceModelBuilder merge(List<CoOccurrenceModelBuilder> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        CoOccurrenceModelBuilder merged = new CoOccurrenceModelBuilder();
+        int[] positions = new int[parts.size()];
+        while (true) {
+            int next = -1;
+            for (int part = 0; part < parts.size(); part++) {
+                if (positions[part] < parts.get(part).size
+                        && (next == -1 || parts.get(part).userIds[positions[part]] < parts.get(next).userIds[positions[next]])) {
+                    next = part;
+                }
+            }
+            if (next == -1) {
+                return merged;
+            }
+            CoOccurrenceModelBuilder part = parts.get(next);
+            int userId = part.userIds[positions[next]];
+            while (positions[next] < part.size && part.userIds[positions[next]] == userId) {
+                merged.add(userId, part.bookIds[positions[next]++]);
+            }
+        }
+    }
+
+    /**
+     * @param maxBasketSize only the first books of a heavy reader are used, a basket costs its size squared
+     * */
+    CoOccurrenceModel build(int topN, int maxBasketSize, ForkJoinPool pool) {
+        long start = System.currentTimeMillis();
+
+        //dense indexes for the books
+        IntIntHashMap bookIndex = new IntIntHashMap(1024, -1);
+        int[] denseBookIds = new int[1024];
+        int books = 0;
+        for (int i = 0; i < size; i++) {
+            if (!bookIndex.containsKey(bookIds[i])) {
+                if (books == denseBookIds.length) {
+                    denseBookIds = Arrays.copyOf(denseBookIds, books * 2);
+                }
+                bookIndex.put(bookIds[i], books);
+                denseBookIds[books++] = bookIds[i];
+            }
+        }
+        denseBookIds = Arrays.copyOf(denseBookIds, books);
+
+        //baskets: books of one user
+        int[] basketOffsets = new int[size + 1];
+        int[] basketItems = new int[size];
+        int baskets = 0;
+        int items = 0;
+        int basketLength = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || userIds[i] != userIds[i - 1]) {
+                basketOffsets[baskets++] = items;
+                basketLength = 0;
+            }
+            if (basketLength++ < maxBasketSize) {
+                basketItems[items++] = bookIndex.get(bookIds[i]);
+            }
+        }
+        basketOffsets[baskets] = items;
+
+        //inverted index: baskets of one book
+        int[] bookOffsets = new int[books + 1];
+        for (int i = 0; i < items; i++) {
+            bookOffsets[basketItems[i] + 1]++;
+        }
+        for (int b = 0; b < books; b++) {
+            bookOffsets[b + 1] += bookOffsets[b];
+        }
+        int[] bookBaskets = new int[items];
+        int[] fill = Arrays.copyOf(bookOffsets, books);
+        for (int basket = 0; basket < baskets; basket++) {
+            for (int i = basketOffsets[basket]; i < basketOffsets[basket + 1]; i++) {
+                bookBaskets[fill[basketItems[i]]++] = basket;
+            }
+        }
+
+        AtomicReferenceArray<long[]> neighbours = new AtomicReferenceArray<>(books);
+        pool.invoke(new TopNTask(0, books, new Csr(basketOffsets, basketItems), new Csr(bookOffsets, bookBaskets),
+                denseBookIds, topN, neighbours));
+
+        return new CoOccurrenceModel(bookIndex, denseBookIds, neighbours, topN, baskets, size,
+                System.currentTimeMillis() - start);
+    }
+
+    private record Csr(int[] offsets, int[] values) {
+    }
+
+    private static final class TopNTask extends RecursiveAction {
+
+        //one scratch pair per worker thread, sized for the number of books of this build
+        private static final ThreadLocal<int[][]> SCRATCH = new ThreadLocal<>();
+
+        private final int from;
+        private final int to;
+        private final Csr baskets;
+        private final Csr bookBaskets;
+        private final int[] bookIds;
+        private final int topN;
+        private final AtomicReferenceArray<long[]> neighbours;
+
+        private TopNTask(int from, int to, Csr baskets, Csr bookBaskets, int[] bookIds, int topN,
+                         AtomicReferenceArray<long[]> neighbours) {
+            this.from = from;
+            this.to = to;
+            this.baskets = baskets;
+            this.bookBaskets = bookBaskets;
+            this.bookIds = bookIds;
+            this.topN = topN;
+            this.neighbours = neighbours;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BOOKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new TopNTask(from, middle, baskets, bookBaskets, bookIds, topN, neighbours),
+                        new TopNTask(middle, to, baskets, bookBaskets, bookIds, topN, neighbours)
+                );
+                return;
+            }
+            int[][] scratch = SCRATCH.get();
+            if (scratch == null || scratch[0].length != bookIds.length) {
+                scratch = new int[][]{new int[bookIds.length], new int[bookIds.length]};
+                SCRATCH.set(scratch);
+            }
+            int[] counts = scratch[0];
+            int[] touched = scratch[1];
+            for (int book = from; book < to; book++) {
+                int touchedCount = 0;
+                for (int i = bookBaskets.offsets()[book]; i < bookBaskets.offsets()[book + 1]; i++) {
+                    int basket = bookBaskets.values()[i];
+                    for (int j = baskets.offsets()[basket]; j < baskets.offsets()[basket + 1]; j++) {
+                        int other = baskets.values()[j];
+                        if (other != book && counts[other]++ == 0) {
+                            touched[touchedCount++] = other;
+                        }
+                    }
+                }
+                neighbours.set(book, topN(counts, touched, touchedCount));
+                for (int i = 0; i < touchedCount; i++) {
+                    counts[touched[i]] = 0;
+                }
+            }
+        }
+
+        //keeps the N best in an ascending array, N is small
+        private long[] topN(int[] counts, int[] touched, int touchedCount) {
+            long[] best = new long[Math.min(topN, touchedCount)];
+            int filled = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                long candidate = CoOccurrenceModel.pack(counts[touched[i]], bookIds[touched[i]]);
+                if (filled < best.length) {
+                    int position = filled++;
+                    while (position > 0 && best[position - 1] > candidate) {
+                        best[position] = best[position - 1];
+                        position--;
+                    }
+                    best[position] = candidate;
+                } else if (best.length > 0 && candidate > best[0]) {
+                    int position = 0;
+                    while (position + 1 < best.length && best[position + 1] < candidate) {
+                        best[position] = best[position + 1];
+                        position++;
+                    }
+                    best[position] = candidate;
+                }
+            }
+            CoOccurrenceModel.sortDescending(best);
+            return best;
+        }
+    }
+}
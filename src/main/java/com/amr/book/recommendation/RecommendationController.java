@@ -0,0 +1,44 @@
+package com.amr.book.recommendation;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("recommendations")
+@RequiredArgsConstructor
+@Tag(name = "Recommendations")
+public class RecommendationController {
+
+    private final RecommendationService service;
+
+    @GetMapping("/books/{book-id}")
+    public ResponseEntity<List<RecommendationResponse>> findBorrowedTogether(
+            @PathVariable("book-id") Integer bookId,
+            @RequestParam(name = "limit", defaultValue = "10", required = false) int limit
+    ) {
+        return ResponseEntity.ok(service.findBorrowedTogether(bookId, limit));
+    }
+
+    @GetMapping("/model")
+    @Secured("ADMIN")
+    public ResponseEntity<RecommendationModelResponse> modelStats() {
+        return ResponseEntity.ok(service.modelStats());
+    }
+
+    @PostMapping("/model/rebuild")
+    @Secured("ADMIN")
+    public ResponseEntity<RecommendationModelResponse> rebuild() {
+        service.rebuild();
+        return ResponseEntity.ok(service.modelStats());
+    }
+}
@@ -0,0 +1,24 @@
+package com.amr.book.recommendation;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class RecommendationModelResponse {
+    private int books;
+    private int users;
+    private int loans;
+    private int topN;
+    private long estimatedBytes;
+    private long buildMillis;
+    private LocalDateTime builtAt;
+}
@@ -0,0 +1,16 @@
+package com.amr.book.recommendation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class RecommendationResponse {
+    private Integer bookId;
+    //readers who borrowed both books
+    private int readers;
+}
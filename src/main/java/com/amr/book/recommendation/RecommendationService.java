@@ -0,0 +1,150 @@
+package com.amr.book.recommendation;
+
+import com.amr.book.common.EntityChange;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * owns the current {@link CoOccurrenceModel}: built at startup (in the background, the app serves
+ * empty recommendations meanwhile) and on a schedule, updated after every committed loan.
+ * between two rebuilds the model is approximate, the rebuild is the reference.
+ * the loans are read on every shard, the pairs of the shards are merged by user before the build
+ * */
+@Slf4j
+@Service
+public class RecommendationService {
+
+    private static final String PAIRS = """
+            SELECT DISTINCT user_id, book_id FROM book_transaction_history_all
+            WHERE user_id IS NOT NULL AND book_id IS NOT NULL
+            ORDER BY user_id
+            """;
+    private static final String BOOKS_OF_USER = """
+            SELECT book_id, count(*) FROM book_transaction_history_all
+            WHERE user_id = ? AND book_id IS NOT NULL
+            GROUP BY book_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ShardTemplate shardTemplate;
+    private final int topN;
+    private final int maxBasketSize;
+    private final int parallelism;
+
+    private volatile CoOccurrenceModel model;
+
+    public RecommendationService(DataSource dataSource,
+                                 PlatformTransactionManager transactionManager,
+                                 ShardTemplate shardTemplate,
+                                 @Value("${application.recommendations.top-n:10}") int topN,
+                                 @Value("${application.recommendations.max-basket-size:500}") int maxBasketSize,
+                                 @Value("${application.recommendations.parallelism:0}") int parallelism,
+                                 @Value("${application.recommendations.fetch-size:5000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.shardTemplate = shardTemplate;
+        this.topN = topN;
+        this.maxBasketSize = maxBasketSize;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.model = CoOccurrenceModel.empty(topN);
+    }
+
+    public List<RecommendationResponse> findBorrowedTogether(Integer bookId, int limit) {
+        long[] neighbours = model.neighbours(bookId);
+        //the model keeps topN neighbours per book, a limit <= 0 from the request would throw below
+        int size = Math.min(Math.max(limit, 1), topN);
+        List<RecommendationResponse> recommendations = new ArrayList<>(Math.min(size, neighbours.length));
+        for (int i = 0; i < neighbours.length && i < size; i++) {
+            recommendations.add(new RecommendationResponse(
+                    CoOccurrenceModel.bookId(neighbours[i]),
+                    CoOccurrenceModel.count(neighbours[i])));
+        }
+        return recommendations;
+    }
+
+    public RecommendationModelResponse modelStats() {
+        CoOccurrenceModel current = model;
+        return RecommendationModelResponse.builder()
+                .books(current.books())
+                .users(current.getUsers())
+                .loans(current.getLoans())
+                .topN(current.getTopN())
+                .estimatedBytes(current.estimatedBytes())
+                .buildMillis(current.getBuildMillis())
+                .builtAt(current.getBuiltAt())
+                .build();
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildAtStartup() {
+        rebuild();
+    }
+
+    @Scheduled(cron = "${application.recommendations.rebuild-cron:0 0 5 * * *}")
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        //streamed through a cursor, only the int arrays of the builders grow
+        CoOccurrenceModelBuilder builder = CoOccurrenceModelBuilder.merge(shardTemplate.scatter(shard -> {
+            CoOccurrenceModelBuilder pairs = new CoOccurrenceModelBuilder();
+            readOnlyTransaction.executeWithoutResult(status ->
+                    jdbcTemplate.query(PAIRS, (RowCallbackHandler) rs -> pairs.add(rs.getInt(1), rs.getInt(2))));
+            return pairs;
+        }));
+        long scanMillis = System.currentTimeMillis() - start;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            model = builder.build(topN, maxBasketSize, pool);
+        } finally {
+            pool.shutdown();
+        }
+        log.info("borrowed together model: {} books, {} readers, {} loans, ~{} KB, scan {} ms, build {} ms",
+                model.books(), model.getUsers(), model.getLoans(), model.estimatedBytes() / 1024,
+                scanMillis, model.getBuildMillis());
+    }
+
+    @Async
+    @TransactionalEventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        if (event.change() != EntityChange.CREATED || event.borrowerId() == null || event.bookId() == null) {
+            return;
+        }
+        CoOccurrenceModel current = model;
+        int bookId = event.bookId();
+        //a book is on one shard only, the rows of the shards do not overlap
+        List<int[]> booksOfUser = new ArrayList<>();
+        shardTemplate.scatter(shard -> jdbcTemplate.query(BOOKS_OF_USER,
+                        (rs, rowNum) -> new int[]{rs.getInt(1), rs.getInt(2)}, event.borrowerId()))
+                .forEach(booksOfUser::addAll);
+        //the model counts readers, not loans: borrowing the same book again changes nothing
+        if (booksOfUser.stream().anyMatch(book -> book[0] == bookId && book[1] > 1)) {
+            return;
+        }
+        for (int[] book : booksOfUser) {
+            if (book[0] != bookId) {
+                current.increment(bookId, book[0]);
+                current.increment(book[0], bookId);
+            }
+        }
+    }
+}
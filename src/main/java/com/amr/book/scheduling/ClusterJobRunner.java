@@ -0,0 +1,175 @@
+package com.amr.book.scheduling;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * runs the background jobs once per cluster instead of once per node.
+ * runExclusive: the node holding the lease runs the job, the others skip this round.
+ * runSharded: the job is cut in shards and every node takes its fair share of them
+ * (shards / live nodes), so a batch job scales out instead of running N times.
+ * the leases are renewed while the job runs and kept a few minutes after it ends (completed-hold)
+ * so the nodes triggered a bit later do not run the same shard again.
+ * the node heartbeat has its own thread: a long job on the scheduler threads must not make the node look dead
+ * */
+@Slf4j
+@Component
+public class ClusterJobRunner {
+
+    private final JobLeaseService leaseService;
+    private final Duration leaseTtl;
+    private final Duration nodeTimeout;
+    private final Duration completedHold;
+    private final long heartbeatInterval;
+    private final ScheduledExecutorService renewer;
+    private final ScheduledExecutorService heartbeats;
+    //the shards running on this node, released right away if the node stops
+    private final Set<JobShardKey> running = ConcurrentHashMap.newKeySet();
+
+    public ClusterJobRunner(JobLeaseService leaseService,
+                            @Value("${application.cluster.lease-ttl:60s}") Duration leaseTtl,
+                            @Value("${application.cluster.node-timeout:30s}") Duration nodeTimeout,
+                            @Value("${application.cluster.completed-hold:5m}") Duration completedHold,
+                            @Value("${application.cluster.heartbeat-interval:10000}") long heartbeatInterval) {
+        this.leaseService = leaseService;
+        this.leaseTtl = leaseTtl;
+        this.nodeTimeout = nodeTimeout;
+        this.completedHold = completedHold;
+        this.heartbeatInterval = heartbeatInterval;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-node-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void startHeartbeat() {
+        heartbeats.scheduleAtFixedRate(this::heartbeat, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return false when another node holds the job
+     * */
+    public boolean runExclusive(String jobName, Runnable job) {
+        return runSharded(jobName, 1, shard -> job.run()) > 0;
+    }
+
+    /**
+     * runs the shards this node could lease, one after the other: its fair share first, then the
+     * shards still free or expired (left by a node counted live that is idle, slow or gone), so every
+     * shard is taken over within the round instead of waiting for the next trigger
+     * @return the number of shards run here
+     * */
+    public int runSharded(String jobName, int shards, Consumer<JobShard> job) {
+        int nodes = leaseService.liveNodes(nodeTimeout);
+        int fairShare = (shards + nodes - 1) / nodes;
+        //every node starts looking at a different shard so they do not all race for shard 0
+        int start = Math.floorMod(leaseService.getNodeId().hashCode(), shards);
+        boolean[] runHere = new boolean[shards];
+        List<JobShard> leased = new ArrayList<>();
+        for (int i = 0; i < shards && leased.size() < fairShare; i++) {
+            int shard = (start + i) % shards;
+            if (leaseService.tryAcquire(jobName, shard, leaseTtl)) {
+                leased.add(new JobShard(shard, shards, new AtomicBoolean(true)));
+                runHere[shard] = true;
+            }
+        }
+        if (leased.isEmpty()) {
+            log.debug("{}: every shard is leased by another node", jobName);
+            return 0;
+        }
+        run(jobName, leased, job);
+        int run = leased.size();
+        //the shards done by the other nodes are held for completed-hold, the running ones are renewed
+        for (int i = 0; i < shards; i++) {
+            int shard = (start + i) % shards;
+            if (!runHere[shard] && leaseService.tryAcquire(jobName, shard, leaseTtl)) {
+                log.info("{}: shard {} taken over", jobName, shard);
+                runHere[shard] = true;
+                run(jobName, List.of(new JobShard(shard, shards, new AtomicBoolean(true))), job);
+                run++;
+            }
+        }
+        return run;
+    }
+
+    private void run(String jobName, List<JobShard> leased, Consumer<JobShard> job) {
+        long renewEvery = Math.max(leaseTtl.toMillis() / 3, 1);
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(() -> leased.forEach(shard -> renew(jobName, shard)),
+                renewEvery, renewEvery, TimeUnit.MILLISECONDS);
+        leased.forEach(shard -> running.add(new JobShardKey(jobName, shard.index())));
+        try {
+            for (JobShard shard : leased) {
+                if (shard.isHeld()) {
+                    job.accept(shard);
+                }
+            }
+        } finally {
+            renewal.cancel(false);
+            leased.forEach(shard -> {
+                running.remove(new JobShardKey(jobName, shard.index()));
+                if (shard.isHeld()) {
+                    leaseService.release(jobName, shard.index(), completedHold);
+                }
+            });
+        }
+    }
+
+    //an exception leaving the task would cancel the next renewals while the job goes on: it counts as a lost lease
+    private void renew(String jobName, JobShard shard) {
+        if (!shard.isHeld()) {
+            return;
+        }
+        try {
+            if (!leaseService.renew(jobName, shard.index(), leaseTtl)) {
+                log.warn("{}: lease of shard {} lost", jobName, shard.index());
+                shard.held().set(false);
+            }
+        } catch (RuntimeException e) {
+            log.warn("{}: lease of shard {} could not be renewed, the shard stops", jobName, shard.index(), e);
+            shard.held().set(false);
+        }
+    }
+
+    //an exception leaving the task would cancel the next heartbeats
+    void heartbeat() {
+        try {
+            leaseService.heartbeat();
+            leaseService.forgetDeadNodes(nodeTimeout);
+        } catch (RuntimeException e) {
+            log.warn("node heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        renewer.shutdownNow();
+        running.forEach(key -> leaseService.release(key.jobName(), key.shard()));
+        leaseService.leave();
+    }
+
+    private record JobShardKey(String jobName, int shard) {
+    }
+}
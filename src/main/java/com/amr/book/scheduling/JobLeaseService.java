@@ -0,0 +1,107 @@
+package com.amr.book.scheduling;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * time bounded leases in the job_lease table. taking a lease is one upsert that only succeeds when
+ * the row is free, expired or already ours, so two nodes can never hold the same (job, shard).
+ * a node that dies stops renewing and the others take its leases over once they expire
+ * */
+@Service
+public class JobLeaseService {
+
+    private static final String ACQUIRE = """
+            INSERT INTO job_lease (job_name, shard, owner, lease_until, acquired_at)
+            VALUES (?, ?, ?, now() + make_interval(secs => ?), now())
+            ON CONFLICT (job_name, shard) DO UPDATE SET
+                owner = EXCLUDED.owner,
+                lease_until = EXCLUDED.lease_until,
+                acquired_at = CASE WHEN job_lease.owner = EXCLUDED.owner THEN job_lease.acquired_at ELSE now() END
+            WHERE job_lease.owner = EXCLUDED.owner OR job_lease.lease_until < now()
+            """;
+    private static final String RENEW = """
+            UPDATE job_lease SET lease_until = now() + make_interval(secs => ?)
+            WHERE job_name = ? AND shard = ? AND owner = ? AND lease_until >= now()
+            """;
+    private static final String RELEASE = """
+            UPDATE job_lease SET lease_until = now() + make_interval(secs => ?)
+            WHERE job_name = ? AND shard = ? AND owner = ?
+            """;
+    private static final String HEARTBEAT = """
+            INSERT INTO job_node (node_id, heartbeat_at) VALUES (?, now())
+            ON CONFLICT (node_id) DO UPDATE SET heartbeat_at = now()
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    @Getter
+    private final String nodeId;
+
+    public JobLeaseService(JdbcTemplate jdbcTemplate,
+                           @Value("${application.cluster.node-id:}") String nodeId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.nodeId = nodeId == null || nodeId.isBlank()
+                //host@pid from the jvm plus a suffix, two restarts of the same process are two nodes
+                ? ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8)
+                : nodeId;
+    }
+
+    /**
+     * takes the lease, or extends it when this node already holds it
+     * @return false when another node holds a lease that is not expired
+     * */
+    public boolean tryAcquire(String jobName, int shard, Duration ttl) {
+        return jdbcTemplate.update(ACQUIRE, jobName, shard, nodeId, seconds(ttl)) == 1;
+    }
+
+    /**
+     * @return false when the lease expired in the meantime (it may belong to another node now)
+     * */
+    public boolean renew(String jobName, int shard, Duration ttl) {
+        return jdbcTemplate.update(RENEW, seconds(ttl), jobName, shard, nodeId) == 1;
+    }
+
+    public void release(String jobName, int shard) {
+        release(jobName, shard, Duration.ZERO);
+    }
+
+    /**
+     * keeps the lease for a while after the work is done, so a node whose trigger fires a bit
+     * later does not run the same shard a second time
+     * */
+    public void release(String jobName, int shard, Duration hold) {
+        jdbcTemplate.update(RELEASE, seconds(hold), jobName, shard, nodeId);
+    }
+
+    public void heartbeat() {
+        jdbcTemplate.update(HEARTBEAT, nodeId);
+    }
+
+    /**
+     * the nodes that sent a heartbeat within the timeout, this one included
+     * */
+    public int liveNodes(Duration timeout) {
+        Integer nodes = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM job_node WHERE heartbeat_at >= now() - make_interval(secs => ?)",
+                Integer.class, seconds(timeout));
+        return nodes == null ? 1 : Math.max(nodes, 1);
+    }
+
+    public void forgetDeadNodes(Duration timeout) {
+        jdbcTemplate.update("DELETE FROM job_node WHERE heartbeat_at < now() - make_interval(secs => ?)", seconds(timeout) * 10);
+    }
+
+    public void leave() {
+        jdbcTemplate.update("DELETE FROM job_node WHERE node_id = ?", nodeId);
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.amr.book.scheduling;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * the part of a job given to this node: the rows with id % count == index.
+ * a long running shard should check isHeld() between its batches, it turns false when the
+ * lease could not be renewed and another node may already be working on the same rows
+ * */
+public record JobShard(int index, int count, AtomicBoolean held) {
+
+    public boolean isHeld() {
+        return held.get();
+    }
+
+    public boolean owns(int id) {
+        return Math.floorMod(id, count) == index;
+    }
+}
@@ -0,0 +1,123 @@
+package com.amr.book.security;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * a set of authorities as a bitset, bit n = the authority of id n in {@link AuthorityDictionary}.
+ * immutable: the checks are one AND per 64 authorities, without allocation.
+ * in the jwt it is the bytes of the words (little endian, trailing zero bytes dropped) in base64url,
+ * 2 characters for the first 8 roles instead of a json array of names
+ * */
+public final class AuthorityBits {
+
+    public static final AuthorityBits NONE = new AuthorityBits(new long[0]);
+
+    private final long[] words;
+
+    private AuthorityBits(long[] words) {
+        this.words = words;
+    }
+
+    public static AuthorityBits of(int... bits) {
+        long[] words = new long[0];
+        for (int bit : bits) {
+            if (bit < 0) {
+                continue;
+            }
+            int word = bit >>> 6;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            }
+            words[word] |= 1L << bit;
+        }
+        return words.length == 0 ? NONE : new AuthorityBits(words);
+    }
+
+    //a decoded value may carry zero words
+    public boolean isEmpty() {
+        return trimmed().length == 0;
+    }
+
+    public boolean has(int bit) {
+        int word = bit >>> 6;
+        return bit >= 0 && word < words.length && (words[word] & (1L << bit)) != 0;
+    }
+
+    /**
+     * at least one authority in common (the semantics of {@code @Secured} with several values)
+     * */
+    public boolean intersects(AuthorityBits other) {
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the ids of the authorities, in order
+     * */
+    public int[] bits() {
+        int[] bits = new int[Arrays.stream(words).mapToInt(Long::bitCount).sum()];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                bits[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return bits;
+    }
+
+    public String encode() {
+        byte[] bytes = new byte[words.length * Long.BYTES];
+        int length = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+            if (bytes[i] != 0) {
+                length = i + 1;
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(bytes, length));
+    }
+
+    /**
+     * @throws IllegalArgumentException when the value is not base64url
+     * */
+    public static AuthorityBits decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return NONE;
+        }
+        byte[] bytes = Base64.getUrlDecoder().decode(encoded);
+        long[] words = new long[(bytes.length + 7) >>> 3];
+        for (int i = 0; i < bytes.length; i++) {
+            words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) << 3);
+        }
+        return words.length == 0 ? NONE : new AuthorityBits(words);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AuthorityBits other && Arrays.equals(trimmed(), other.trimmed());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(trimmed());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(bits());
+    }
+
+    private long[] trimmed() {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        return length == words.length ? words : Arrays.copyOf(words, length);
+    }
+}
@@ -0,0 +1,129 @@
+package com.amr.book.security;
+
+import com.amr.book.role.Role;
+import com.amr.book.role.RoleRepository;
+import com.amr.book.user.User;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the authorities known to the application (the rows of the role table, a permission is one more row)
+ * and their bit in {@link AuthorityBits}. the bit is the id of the row, so every node of the cluster
+ * reads the same bitset from a token without agreeing on anything else. loaded once, again at
+ * the end of the startup (the runners create the default roles) and when a name is not known yet
+ * */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AuthorityDictionary {
+
+    //an unknown name (a role not created yet) reloads the table at most this often
+    private static final long RELOAD_INTERVAL_MILLIS = 60_000;
+
+    private record Snapshot(Map<String, Integer> bitByName, String[] nameByBit, long loadedAt) {
+    }
+
+    private final RoleRepository roleRepository;
+    private volatile Snapshot snapshot;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reload() {
+        List<Role> roles = roleRepository.findAll();
+        Map<String, Integer> bitByName = new HashMap<>();
+        int maxId = roles.stream().mapToInt(Role::getId).max().orElse(0);
+        String[] nameByBit = new String[maxId + 1];
+        for (Role role : roles) {
+            bitByName.put(role.getName(), role.getId());
+            nameByBit[role.getId()] = role.getName();
+        }
+        snapshot = new Snapshot(Map.copyOf(bitByName), nameByBit, System.currentTimeMillis());
+        log.info("authority dictionary loaded: {} authorities", bitByName.size());
+    }
+
+    /**
+     * @return -1 when there is no such authority
+     * */
+    public int bitOf(String name) {
+        Integer bit = snapshot().bitByName().get(name);
+        if (bit == null && System.currentTimeMillis() - snapshot().loadedAt() > RELOAD_INTERVAL_MILLIS) {
+            reload();
+            bit = snapshot().bitByName().get(name);
+        }
+        return bit == null ? -1 : bit;
+    }
+
+    /**
+     * the unknown names are left out
+     * */
+    public AuthorityBits bitsOf(String... names) {
+        int[] bits = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            bits[i] = bitOf(names[i]);
+        }
+        return AuthorityBits.of(bits);
+    }
+
+    //the roles of a user are their ids already, the other principals go through the names
+    public AuthorityBits bitsOf(UserDetails userDetails) {
+        if (userDetails instanceof User user) {
+            return user.getRoles() == null ? AuthorityBits.NONE
+                    : AuthorityBits.of(user.getRoles().stream().mapToInt(Role::getId).toArray());
+        }
+        return bitsOfAuthorities(userDetails.getAuthorities());
+    }
+
+    public AuthorityBits bitsOfAuthorities(Collection<? extends GrantedAuthority> authorities) {
+        return bitsOf(authorities.stream().map(GrantedAuthority::getAuthority).toArray(String[]::new));
+    }
+
+    /**
+     * one bit tested for a jwt authentication
+     * */
+    public boolean hasAuthority(Authentication authentication, String name) {
+        if (authentication instanceof BitsetAuthenticationToken token) {
+            return token.getBits().has(bitOf(name));
+        }
+        return authentication != null && authentication.getAuthorities().stream()
+                .anyMatch(authority -> name.equals(authority.getAuthority()));
+    }
+
+    /**
+     * for the code that still reads the names ({@code Authentication.getAuthorities()})
+     * */
+    public List<GrantedAuthority> authoritiesOf(AuthorityBits bits) {
+        String[] nameByBit = snapshot().nameByBit();
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        for (int bit : bits.bits()) {
+            if (bit < nameByBit.length && nameByBit[bit] != null) {
+                authorities.add(new SimpleGrantedAuthority(nameByBit[bit]));
+            }
+        }
+        return List.copyOf(authorities);
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    reload();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+}
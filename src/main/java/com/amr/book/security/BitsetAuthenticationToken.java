@@ -0,0 +1,51 @@
+package com.amr.book.security;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * the authentication of a request with a jwt: the authorities are the bitset of the token,
+ * checked by {@link BitsetAuthorizationManager}. the names are only built when some code
+ * asks for {@link #getAuthorities()}
+ * */
+public class BitsetAuthenticationToken extends AbstractAuthenticationToken {
+
+    private final UserDetails principal;
+    private final AuthorityBits bits;
+    private final transient AuthorityDictionary dictionary;
+    private transient List<GrantedAuthority> authorities;
+
+    public BitsetAuthenticationToken(UserDetails principal, AuthorityBits bits, AuthorityDictionary dictionary) {
+        super(null);
+        this.principal = principal;
+        this.bits = bits;
+        this.dictionary = dictionary;
+        setAuthenticated(true);
+    }
+
+    public AuthorityBits getBits() {
+        return bits;
+    }
+
+    @Override
+    public Collection<GrantedAuthority> getAuthorities() {
+        if (authorities == null) {
+            authorities = dictionary.authoritiesOf(bits);
+        }
+        return authorities;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return null;
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return principal;
+    }
+}
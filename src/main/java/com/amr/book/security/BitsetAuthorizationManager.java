@@ -0,0 +1,84 @@
+package com.amr.book.security;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.core.Authentication;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * {@code @Secured} checked on bitsets: the names of the annotation are turned into a mask once per
+ * method, a call is then one AND with the bits of the token (no collection, no string compared).
+ * a name that is not a role yet gives an empty mask, resolved again on the next call instead of cached
+ * */
+public class BitsetAuthorizationManager implements AuthorizationManager<MethodInvocation> {
+
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+
+    //the dictionary needs the repositories, the method security advisor is created before them
+    private final ObjectProvider<AuthorityDictionary> dictionary;
+    private final Map<Method, AuthorityBits> masks = new ConcurrentHashMap<>();
+
+    public BitsetAuthorizationManager(ObjectProvider<AuthorityDictionary> dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public AuthorizationDecision check(Supplier<Authentication> authentication, MethodInvocation invocation) {
+        AuthorityBits mask = mask(invocation);
+        if (mask == null) {
+            return null;
+        }
+        return bitsOf(authentication.get()).intersects(mask) ? GRANTED : DENIED;
+    }
+
+    private AuthorityBits bitsOf(Authentication authentication) {
+        if (authentication instanceof BitsetAuthenticationToken token) {
+            return token.getBits();
+        }
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken
+                || !authentication.isAuthenticated()) {
+            return AuthorityBits.NONE;
+        }
+        //another kind of authentication (tests, login): through the names
+        return dictionary.getObject().bitsOfAuthorities(authentication.getAuthorities());
+    }
+
+    /**
+     * @return null when the method is not secured
+     * */
+    private AuthorityBits mask(MethodInvocation invocation) {
+        Method method = invocation.getMethod();
+        AuthorityBits mask = masks.get(method);
+        if (mask != null) {
+            return mask;
+        }
+        Secured secured = findSecured(invocation);
+        if (secured == null) {
+            return null;
+        }
+        mask = dictionary.getObject().bitsOf(secured.value());
+        if (!mask.isEmpty()) {
+            masks.put(method, mask);
+        }
+        return mask;
+    }
+
+    private static Secured findSecured(MethodInvocation invocation) {
+        Class<?> targetClass = invocation.getThis() == null ? invocation.getMethod().getDeclaringClass()
+                : AopUtils.getTargetClass(invocation.getThis());
+        Method method = AopUtils.getMostSpecificMethod(invocation.getMethod(), targetClass);
+        Secured secured = AnnotatedElementUtils.findMergedAnnotation(method, Secured.class);
+        return secured != null ? secured : AnnotatedElementUtils.findMergedAnnotation(targetClass, Secured.class);
+    }
+}
@@ -1,5 +1,9 @@
 package com.amr.book.security;
 
+import com.amr.book.audit.AuditEventType;
+import com.amr.book.audit.SecurityAuditLog;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -7,7 +11,6 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.lang.NonNull;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -25,6 +28,8 @@ public class JwtFilter extends OncePerRequestFilter {
     private final JwtService jwtService;
 
     private final UserDetailsService userDetailsService;
+    private final SecurityAuditLog auditLog;
+    private final AuthorityDictionary authorityDictionary;
     @Override
     protected void doFilterInternal(
             @NonNull HttpServletRequest request,
@@ -39,24 +44,36 @@ public class JwtFilter extends OncePerRequestFilter {
         final String authHeader=request.getHeader(HttpHeaders.AUTHORIZATION);
         final String jwt;
         final String userEmail;
+        final Claims claims;
         if(authHeader == null || !authHeader.startsWith("Bearer ")){
             filterChain.doFilter(request,response);
             return;
         }
         jwt=authHeader.substring(7);
-        userEmail = jwtService.extractUsername(jwt);
+        try {
+            claims = jwtService.extractAllClaims(jwt);
+            userEmail = claims.getSubject();
+        } catch (JwtException | IllegalArgumentException e) {
+            //expired, bad signature, malformed
+            auditLog.record(AuditEventType.TOKEN_REJECTED, null, request.getRemoteAddr(), e.getClass().getSimpleName());
+            throw e;
+        }
         if(userEmail != null && SecurityContextHolder.getContext().getAuthentication()==null){
             UserDetails userDetails=userDetailsService.loadUserByUsername(userEmail);
-            if(jwtService.isTokenValid(jwt,userDetails)){
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+            //a locked account (deletion requested) is refused before its tokens expire
+            if(userDetails.isAccountNonLocked() && jwtService.isTokenValid(claims,userDetails)){
+                //the authorities are the bitset of the token, the role changes apply with the next token
+                BitsetAuthenticationToken authToken = new BitsetAuthenticationToken(
                         userDetails,
-                        null,
-                        userDetails.getAuthorities()
+                        jwtService.extractAuthorities(claims),
+                        authorityDictionary
                 );
                 authToken.setDetails(
                         new WebAuthenticationDetailsSource().buildDetails(request)
                 );
                 SecurityContextHolder.getContext().setAuthentication(authToken);
+            } else {
+                auditLog.record(AuditEventType.TOKEN_REJECTED, userEmail, request.getRemoteAddr(), "token of another user, expired or account locked");
             }
         }
         filterChain.doFilter(request,response);
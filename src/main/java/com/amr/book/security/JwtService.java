@@ -4,8 +4,8 @@ import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
@@ -14,11 +14,16 @@ import java.util.*;
 import java.util.function.Function;
 
 @Service
+@RequiredArgsConstructor
 /**
  * the class which responsible for generating the token that will
  * decode the token extract the information from the token validate the token
  * */
 public class JwtService {
+    //the authorities of the user as an AuthorityBits bitset
+    public static final String AUTHORITIES_CLAIM = "auth";
+
+    private final AuthorityDictionary authorityDictionary;
     @Value("${application.security.jwt.expiration}")
     private long jwtExpiration ;
     @Value("${application.security.jwt.secret-key}")
@@ -35,7 +40,8 @@ public class JwtService {
         return claimResolver.apply(claims);
     }
 
-    private Claims extractAllClaims(String token) {
+    //parsed once per request by the jwt filter, the signature is checked on every parse
+    public Claims extractAllClaims(String token) {
     return Jwts
             .parserBuilder()
             .setSigningKey(getSignInKey())
@@ -61,10 +67,7 @@ public class JwtService {
             UserDetails userDetails,
             long jwtExpiration
     ) {
-        var authorities=userDetails.getAuthorities()
-                .stream()
-                .map(GrantedAuthority::getAuthority)
-                .toList();
+        var authorities=authorityDictionary.bitsOf(userDetails).encode();
 
         return  Jwts
                 .builder()
@@ -72,7 +75,7 @@ public class JwtService {
                 .setSubject(userDetails.getUsername())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis()+jwtExpiration))
-                .claim("authorities",authorities)
+                .claim(AUTHORITIES_CLAIM,authorities)
                 .signWith(getSignInKey())
                 .compact()
                 ;
@@ -83,6 +86,19 @@ public class JwtService {
         return (username.equals(userDetails.getUsername()))&&!IsTokenExpired(token);
     }
 
+    public boolean isTokenValid(Claims claims,UserDetails userDetails){
+        return claims.getSubject().equals(userDetails.getUsername())&&!claims.getExpiration().before(new Date());
+    }
+
+    public AuthorityBits extractAuthorities(Claims claims){
+        String bits=claims.get(AUTHORITIES_CLAIM,String.class);
+        if(bits==null && claims.get("authorities") instanceof List<?> names){
+            //a token issued before the bitsets, with the names of the roles
+            return authorityDictionary.bitsOf(names.stream().map(String::valueOf).toArray(String[]::new));
+        }
+        return AuthorityBits.decode(bits);
+    }
+
     private boolean IsTokenExpired(String token) {
         return extractExpiration(token).before(new Date());
     }
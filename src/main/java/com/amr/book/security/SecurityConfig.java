@@ -1,16 +1,26 @@
 package com.amr.book.security;
 
+import com.amr.book.idempotency.IdempotencyFilter;
+import com.amr.book.limiter.AdaptiveConcurrencyFilter;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.aop.Advisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.authorization.method.AuthorizationManagerBeforeMethodInterceptor;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.session.DisableEncodeUrlFilter;
 import org.springframework.security.authentication.AuthenticationProvider;
 import static org.springframework.security.config.Customizer.withDefaults;
 import static org.springframework.security.config.http.SessionCreationPolicy.STATELESS;
@@ -18,11 +28,14 @@ import static org.springframework.security.config.http.SessionCreationPolicy.STA
 @Configuration //to mark a class as configuration
 @EnableWebSecurity
 @RequiredArgsConstructor //in order to create constructor will all private fields
-@EnableMethodSecurity(securedEnabled = true)
+//@Secured is checked on bitsets by the advisor below instead of the SecuredAuthorizationManager of spring
+@EnableMethodSecurity
 
 public class SecurityConfig {
 
     private final JwtFilter jwtAuthFilter;
+    private final IdempotencyFilter idempotencyFilter;
+    private final AdaptiveConcurrencyFilter concurrencyFilter;
     private final AuthenticationProvider authenticationProvider;
 
     //when we make @Configuration the scan of classes begain so spring will configure that we have a
@@ -33,7 +46,9 @@ public class SecurityConfig {
                 .cors(withDefaults())
                 .csrf(AbstractHttpConfigurer::disable)//with this way we disable the csrf
                 .authorizeHttpRequests(req->
-                        req.requestMatchers(//that the urls that i want to permit
+                        //the async dispatch of an SSE stream continues a request that was already authorized
+                        req.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                                .requestMatchers(//that the urls that i want to permit
                                         "/auth/**", //this belong to our controller
                                         // so i want to authorized all the methods that are inside it
                                         "/v2/api-docs",
@@ -45,8 +60,11 @@ public class SecurityConfig {
                                         "/configuration/security",
                                         "/swagger-ui/**",
                                         "/webjars/**",
-                                        "/swagger-ui.html"
+                                        "/swagger-ui.html",
+                                        "/actuator/health/**"
                                 ).permitAll()
+                                //the startup timeline tells the beans and the libraries of the application
+                                .requestMatchers("/actuator/startup").hasAuthority("ADMIN")
                                 .anyRequest()
                                 .authenticated() //else it should be authenticated
                 )
@@ -56,7 +74,33 @@ public class SecurityConfig {
                 .sessionManagement(session->session.sessionCreationPolicy(STATELESS))
                 .authenticationProvider(authenticationProvider)
                 //to add or our own filter which customized by me or which support from spring
-                .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class)
+                //after the jwt filter, the idempotency keys are scoped by user
+                .addFilterAfter(idempotencyFilter, JwtFilter.class)
+                //first of the chain, an overloaded server refuses before the user lookup of the jwt filter
+                .addFilterBefore(concurrencyFilter, DisableEncodeUrlFilter.class);
         return http.build();
     }
+
+    //the idempotency filter only runs inside the security chain, not a second time as a servlet filter
+    @Bean
+    public FilterRegistrationBean<IdempotencyFilter> idempotencyFilterRegistration() {
+        FilterRegistrationBean<IdempotencyFilter> registration = new FilterRegistrationBean<>(idempotencyFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
+    @Bean
+    public FilterRegistrationBean<AdaptiveConcurrencyFilter> concurrencyFilterRegistration() {
+        FilterRegistrationBean<AdaptiveConcurrencyFilter> registration = new FilterRegistrationBean<>(concurrencyFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
+    //static: the method security advisors are created before the other beans
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static Advisor securedAuthorizationAdvisor(ObjectProvider<AuthorityDictionary> authorityDictionary) {
+        return AuthorizationManagerBeforeMethodInterceptor.secured(new BitsetAuthorizationManager(authorityDictionary));
+    }
 }
@@ -0,0 +1,149 @@
+package com.amr.book.sharding;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * offline resharding, the application nodes must be stopped:
+ * <pre>
+ * java -jar book-network.jar --spring.main.web-application-type=none \
+ *     --application.sharding.enabled=true \
+ *     --application.sharding.reshard.enabled=true \
+ *     --application.sharding.reshard.target-shards=4
+ * </pre>
+ * moves every bucket whose shard is not (bucket % target-shards) to that shard: copies its books,
+ * feedbacks and loans in id batches, moves book_domain_id_seq of the target past the one of the source,
+ * records the bucket in shard_bucket then deletes the rows from the source.
+ * from-global moves the rows written before sharding was enabled. every step can be run again
+ * after a failure (the copies ignore the rows already there, a bucket half moved is finished first)
+ * */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "application.sharding.reshard.enabled", havingValue = "true")
+public class ReshardingTool implements ApplicationRunner {
+
+    //children first for the deletes, parents first for the copies
+    private static final List<String> CHILD_TABLES = List.of(
+            "book_transaction_history", "book_transaction_history_archive", "feedback");
+    private static final String BUCKET_BOOKS = "SELECT id FROM book WHERE mod(owner_id, " + ShardRouter.BUCKETS + ") = ?";
+
+    private final ShardRouter router;
+    private final ShardingProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final ConfigurableApplicationContext context;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        reshard();
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+
+    /**
+     * @return the number of buckets moved
+     * */
+    public int reshard() {
+        int targetShards = properties.reshard().targetShards();
+        if (!properties.enabled() || targetShards < 1 || targetShards > properties.shards().size()) {
+            throw new IllegalStateException("reshard needs sharding enabled and 1.." + properties.shards().size() + " target shards");
+        }
+        finishInterruptedMoves();
+        int moved = 0;
+        for (int bucket = 0; bucket < ShardRouter.BUCKETS; bucket++) {
+            int target = bucket % targetShards;
+            if (properties.reshard().fromGlobal()) {
+                moveBucket(bucket, ShardRouter.GLOBAL, target);
+                moved++;
+            } else if (router.shardOfBucket(bucket) != target) {
+                moveBucket(bucket, router.shardOfBucket(bucket), target);
+                moved++;
+            }
+        }
+        router.reload();
+        log.info("resharding done: {} buckets moved over {} shards", moved, targetShards);
+        return moved;
+    }
+
+    private void finishInterruptedMoves() {
+        List<Map<String, Object>> moving = ShardContext.call(ShardRouter.GLOBAL, () -> jdbcTemplate.queryForList(
+                "SELECT bucket, previous_shard FROM shard_bucket WHERE previous_shard IS NOT NULL"));
+        for (Map<String, Object> bucket : moving) {
+            deleteBucket((Integer) bucket.get("bucket"), (Integer) bucket.get("previous_shard"));
+        }
+    }
+
+    private void moveBucket(int bucket, int source, int target) {
+        long start = System.currentTimeMillis();
+        int books = copy("book", "mod(owner_id, " + ShardRouter.BUCKETS + ") = ?", bucket, source, target);
+        for (String table : CHILD_TABLES) {
+            copy(table, "book_id IN (" + BUCKET_BOOKS + ")", bucket, source, target);
+        }
+        //the target hands out values above every id the source gave to this bucket
+        long sourceSequence = ShardContext.call(source, () -> lastSequenceValue());
+        ShardContext.run(target, () -> jdbcTemplate.queryForObject(
+                "SELECT setval('book_domain_id_seq', greatest((SELECT last_value FROM book_domain_id_seq), ?))",
+                Long.class, sourceSequence));
+        ShardContext.run(ShardRouter.GLOBAL, () -> jdbcTemplate.update("""
+                INSERT INTO shard_bucket (bucket, shard, previous_shard) VALUES (?, ?, ?)
+                ON CONFLICT (bucket) DO UPDATE SET shard = EXCLUDED.shard, previous_shard = EXCLUDED.previous_shard
+                """, bucket, target, source));
+        deleteBucket(bucket, source);
+        log.info("bucket {} moved from shard {} to shard {}: {} books in {} ms",
+                bucket, source, target, books, System.currentTimeMillis() - start);
+    }
+
+    private long lastSequenceValue() {
+        Long value = jdbcTemplate.queryForObject("SELECT last_value FROM book_domain_id_seq", Long.class);
+        return value == null ? 1 : value;
+    }
+
+    //keyset batches by id, the rows already copied by a previous run are skipped
+    private int copy(String table, String condition, int bucket, int source, int target) {
+        int batchSize = properties.reshard().batchSize();
+        String select = "SELECT * FROM " + table + " WHERE " + condition + " AND id > ? ORDER BY id LIMIT " + batchSize;
+        int lastId = Integer.MIN_VALUE;
+        int copied = 0;
+        while (true) {
+            int after = lastId;
+            List<Map<String, Object>> rows = ShardContext.call(source, () -> jdbcTemplate.queryForList(select, bucket, after));
+            if (rows.isEmpty()) {
+                return copied;
+            }
+            List<String> columns = new ArrayList<>(rows.get(0).keySet());
+            String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                    + columns.stream().map(column -> "?").collect(Collectors.joining(", ")) + ") ON CONFLICT DO NOTHING";
+            List<Object[]> values = rows.stream()
+                    .map(row -> columns.stream().map(row::get).toArray())
+                    .toList();
+            ShardContext.run(target, () -> jdbcTemplate.batchUpdate(insert, values));
+            copied += rows.size();
+            lastId = (Integer) rows.get(rows.size() - 1).get("id");
+            if (rows.size() < batchSize) {
+                return copied;
+            }
+        }
+    }
+
+    private void deleteBucket(int bucket, int source) {
+        ShardContext.run(source, () -> {
+            for (String table : CHILD_TABLES) {
+                jdbcTemplate.update("DELETE FROM " + table + " WHERE book_id IN (" + BUCKET_BOOKS + ")", bucket);
+            }
+            jdbcTemplate.update("DELETE FROM book WHERE mod(owner_id, " + ShardRouter.BUCKETS + ") = ?", bucket);
+        });
+        ShardContext.run(ShardRouter.GLOBAL, () -> jdbcTemplate.update(
+                "UPDATE shard_bucket SET previous_shard = NULL WHERE bucket = ?", bucket));
+    }
+}
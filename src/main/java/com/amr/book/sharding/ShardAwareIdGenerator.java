@@ -0,0 +1,82 @@
+package com.amr.book.sharding;
+
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerationException;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ids of the book domain. on a book shard: sequence value * BUCKETS + bucket of the book owner, so the id
+ * of a book, of its feedbacks and of its loans tells the shard holding them without a lookup.
+ * on the global database (sharding disabled) there is nothing to route: the id is the sequence value,
+ * the integer ids last BUCKETS times longer (see V8__book_domain_plain_ids.sql).
+ * the values come from book_domain_id_seq of the database the entity is written to, by blocks of
+ * ALLOCATION (one round trip per block), every database keeps its own block
+ * */
+public class ShardAwareIdGenerator implements IdentifierGenerator {
+
+    //the INCREMENT BY of book_domain_id_seq
+    static final int ALLOCATION = 50;
+    private static final String NEXT_BLOCK = "SELECT nextval('book_domain_id_seq')";
+
+    //by shard: next value and end of the block (excluded)
+    private final ConcurrentHashMap<Integer, long[]> blocks = new ConcurrentHashMap<>();
+
+    public ShardAwareIdGenerator(ShardAwareId config, Member member, CustomIdGeneratorCreationContext context) {
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object entity) {
+        int shard = ShardContext.current();
+        long id;
+        if (shard == ShardRouter.GLOBAL) {
+            id = nextValue(session, shard);
+        } else {
+            Integer ownerId = entity instanceof ShardKeyed keyed ? keyed.shardOwnerId() : null;
+            int bucket = ownerId == null ? 0 : ShardRouter.bucketOfOwner(ownerId);
+            id = nextValue(session, shard) * ShardRouter.BUCKETS + bucket;
+        }
+        if (id > Integer.MAX_VALUE) {
+            throw new IdentifierGenerationException("book_domain_id_seq of shard " + shard + " is exhausted for integer ids");
+        }
+        return (int) id;
+    }
+
+    private long nextValue(SharedSessionContractImplementor session, int shard) {
+        long[] block = blocks.computeIfAbsent(shard, key -> new long[]{0, 0});
+        synchronized (block) {
+            if (block[0] == block[1]) {
+                block[0] = fetchBlockStart(session);
+                block[1] = block[0] + ALLOCATION;
+            }
+            return block[0]++;
+        }
+    }
+
+    //same jdbc calls as the sequence generators of hibernate, on the connection of the session
+    private static long fetchBlockStart(SharedSessionContractImplementor session) {
+        JdbcCoordinator jdbc = session.getJdbcCoordinator();
+        PreparedStatement statement = jdbc.getStatementPreparer().prepareStatement(NEXT_BLOCK);
+        try {
+            ResultSet resultSet = jdbc.getResultSetReturn().extract(statement, NEXT_BLOCK);
+            try {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } finally {
+                jdbc.getLogicalConnection().getResourceRegistry().release(resultSet, statement);
+            }
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not get a book_domain_id_seq block", NEXT_BLOCK);
+        } finally {
+            jdbc.getLogicalConnection().getResourceRegistry().release(statement);
+            jdbc.afterStatementExecution();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.amr.book.sharding;
+
+import java.util.function.Supplier;
+
+/**
+ * the shard the current thread works on, read by ShardRoutingDataSource when a connection is taken.
+ * a transaction keeps the connection it started with: set the shard before the transaction starts
+ * */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static int current() {
+        Integer shard = CURRENT.get();
+        return shard == null ? ShardRouter.GLOBAL : shard;
+    }
+
+    public static <T> T call(int shard, Supplier<T> work) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static void run(int shard, Runnable work) {
+        call(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,12 @@
+package com.amr.book.sharding;
+
+/**
+ * an entity of the book domain: it lives on the shard of the book owner
+ * */
+public interface ShardKeyed {
+
+    /**
+     * @return the id of the owner of the book, null when not known yet
+     * */
+    Integer shardOwnerId();
+}
@@ -0,0 +1,86 @@
+package com.amr.book.sharding;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * where the book domain rows live: every owner falls in one of BUCKETS buckets (owner id modulo BUCKETS,
+ * the same expression works in SQL), every bucket lives on one shard. the bucket count never changes,
+ * resharding moves whole buckets (see ReshardingTool and the shard_bucket table).
+ * sharding disabled: everything lives on the global database
+ * */
+@Component
+public class ShardRouter {
+
+    public static final int BUCKETS = 64;
+    public static final int GLOBAL = -1;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int shardCount;
+    private volatile int[] bucketShards;
+
+    public ShardRouter(JdbcTemplate jdbcTemplate, ShardingProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shardCount = properties.shardCount();
+    }
+
+    public static int bucketOfOwner(int ownerId) {
+        return Math.floorMod(ownerId, BUCKETS);
+    }
+
+    /**
+     * the ids given on the global database (before sharding was enabled) do not carry the bucket
+     * of their owner, a lookup by id that misses must fall back to every shard
+     * */
+    public static int bucketOfId(int id) {
+        return Math.floorMod(id, BUCKETS);
+    }
+
+    public boolean isEnabled() {
+        return shardCount > 0;
+    }
+
+    public int shardOfBucket(int bucket) {
+        return shardCount == 0 ? GLOBAL : bucketShards()[bucket];
+    }
+
+    public int shardOfOwner(int ownerId) {
+        return shardOfBucket(bucketOfOwner(ownerId));
+    }
+
+    public int shardOfId(int id) {
+        return shardOfBucket(bucketOfId(id));
+    }
+
+    /**
+     * the shards holding book domain rows, the global database alone when sharding is disabled
+     * */
+    public List<Integer> shards() {
+        return shardCount == 0 ? List.of(GLOBAL) : IntStream.range(0, shardCount).boxed().toList();
+    }
+
+    //after ReshardingTool moved buckets
+    public void reload() {
+        bucketShards = null;
+    }
+
+    //loaded on first use: flyway has created shard_bucket by then
+    private int[] bucketShards() {
+        int[] shards = bucketShards;
+        if (shards == null) {
+            shards = new int[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                shards[bucket] = bucket % shardCount;
+            }
+            int[] assigned = shards;
+            ShardContext.run(GLOBAL, () -> jdbcTemplate.query("SELECT bucket, shard FROM shard_bucket",
+                    (RowCallbackHandler) rs -> assigned[rs.getInt("bucket")] = rs.getInt("shard")));
+            bucketShards = shards;
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,50 @@
+package com.amr.book.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the DataSource of the application when sharding is enabled: the global database by default,
+ * the book shard set in ShardContext otherwise
+ * */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    private final DataSource global;
+    private final List<DataSource> shards;
+
+    public ShardRoutingDataSource(DataSource global, List<DataSource> shards) {
+        this.global = global;
+        this.shards = shards;
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            targets.put(i, shards.get(i));
+        }
+        setDefaultTargetDataSource(global);
+        setTargetDataSources(targets);
+        //an unknown shard is a routing bug, not something to send to the global database
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        int shard = ShardContext.current();
+        return shard == ShardRouter.GLOBAL ? null : shard;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource shard : shards) {
+            if (shard instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+        if (global instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
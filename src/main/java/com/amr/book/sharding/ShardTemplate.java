@@ -0,0 +1,66 @@
+package com.amr.book.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * runs book domain work on the right shard: one shard for the work of one owner,
+ * every shard in parallel for the queries that are not bound to an owner (scatter),
+ * the caller merges the partial results (gather)
+ * */
+@Component
+public class ShardTemplate {
+
+    private final ShardRouter router;
+    private final ExecutorService scatterExecutor;
+
+    public ShardTemplate(ShardRouter router,
+                         @Value("${application.sharding.scatter-threads:8}") int scatterThreads) {
+        this.router = router;
+        AtomicInteger threads = new AtomicInteger();
+        this.scatterExecutor = Executors.newFixedThreadPool(scatterThreads, runnable -> {
+            Thread thread = new Thread(runnable, "shard-scatter-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public <T> T onOwnerShard(int ownerId, Supplier<T> work) {
+        return ShardContext.call(router.shardOfOwner(ownerId), work);
+    }
+
+    /**
+     * @return the result of every shard, in the order of ShardRouter.shards()
+     * */
+    public <T> List<T> scatter(IntFunction<T> query) {
+        List<Integer> shards = router.shards();
+        if (shards.size() == 1) {
+            int shard = shards.get(0);
+            return List.of(ShardContext.call(shard, () -> query.apply(shard)));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> ShardContext.call(shard, () -> query.apply(shard)), scatterExecutor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scatterExecutor.shutdownNow();
+    }
+}
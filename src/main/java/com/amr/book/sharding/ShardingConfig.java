@@ -0,0 +1,52 @@
+package com.amr.book.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sharding disabled (the default): nothing changes, spring boot creates the single DataSource.
+ * enabled: the DataSource routes between the global database (spring.datasource: users, roles, tokens,
+ * jobs...) and the book shards (application.sharding.shards), each shard gets the db/shard migrations
+ * */
+@Configuration
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "application.sharding.enabled", havingValue = "true")
+    public DataSource dataSource(DataSourceProperties properties, ShardingProperties sharding) {
+        HikariDataSource global = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        global.setPoolName("global");
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < sharding.shards().size(); i++) {
+            ShardingProperties.Shard shard = sharding.shards().get(i);
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .driverClassName(properties.determineDriverClassName())
+                    .url(shard.url())
+                    .username(shard.username())
+                    .password(shard.password())
+                    .build();
+            dataSource.setPoolName("shard-" + i);
+            Flyway.configure()
+                    .dataSource(dataSource)
+                    .locations("classpath:db/shard")
+                    .load()
+                    .migrate();
+            shards.add(dataSource);
+        }
+        return new ShardRoutingDataSource(global, shards);
+    }
+}
@@ -0,0 +1,35 @@
+package com.amr.book.sharding;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+
+/**
+ * application.sharding: the book shards (the global database is spring.datasource)
+ * */
+@ConfigurationProperties(prefix = "application.sharding")
+public record ShardingProperties(
+        boolean enabled,
+        List<Shard> shards,
+        Reshard reshard
+) {
+
+    public ShardingProperties {
+        shards = shards == null ? List.of() : List.copyOf(shards);
+        reshard = reshard == null ? new Reshard(false, false, 0, 1000) : reshard;
+    }
+
+    public int shardCount() {
+        return enabled ? shards.size() : 0;
+    }
+
+    public record Shard(String url, String username, String password) {
+    }
+
+    /**
+     * ReshardingTool: fromGlobal moves the rows written before sharding was enabled,
+     * targetShards is the number of shards the buckets are spread over
+     * */
+    public record Reshard(boolean enabled, boolean fromGlobal, int targetShards, int batchSize) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.amr.book.stats;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * one row per user with the dashboard counters, so the dashboard is a primary key read.
+ * the counters are moved by UserStatsListener in the transaction that writes the book / loan / feedback
+ * and repaired by UserStatsRecomputeJob
+ * */
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "user_stats")
+public class UserStats {
+
+    @Id
+    private Integer userId;
+    @Column(nullable = false)
+    private long booksOwned;
+    @Column(nullable = false)
+    private long booksShared;
+    @Column(nullable = false)
+    private long currentLoans;
+    @Column(nullable = false)
+    private long booksReturned;
+    @Column(nullable = false)
+    private long feedbackGiven;
+    private LocalDateTime lastModifiedDate;
+}
@@ -0,0 +1,34 @@
+package com.amr.book.stats;
+
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("stats")
+@RequiredArgsConstructor
+@Tag(name = "Stats")
+public class UserStatsController {
+
+    private final UserStatsService service;
+    private final UserStatsRecomputeJob recomputeJob;
+
+    @GetMapping("/me")
+    public ResponseEntity<UserStatsResponse> findMyStats(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.findStats(user.getId()));
+    }
+
+    @PostMapping("/recompute")
+    @Secured("ADMIN")
+    public ResponseEntity<Integer> recompute() {
+        return ResponseEntity.ok(recomputeJob.recomputeAll());
+    }
+}
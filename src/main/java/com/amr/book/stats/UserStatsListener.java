@@ -0,0 +1,56 @@
+package com.amr.book.stats;
+
+import com.amr.book.book.BookChangedEvent;
+import com.amr.book.common.EntityChange;
+import com.amr.book.feedback.FeedbackChangedEvent;
+import com.amr.book.history.LoanChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * keeps user_stats in step with the writes. these are plain @EventListener on purpose:
+ * they run during the flush, in the transaction of the write
+ * */
+@Component
+@RequiredArgsConstructor
+public class UserStatsListener {
+
+    private final UserStatsService service;
+
+    @EventListener
+    public void onBookChanged(BookChangedEvent event) {
+        service.applyDelta(event.ownerId(),
+                existenceDelta(event.change()),
+                flag(event.shareable()) - flag(event.previousShareable()),
+                0, 0, 0);
+    }
+
+    @EventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        boolean open = event.change() != EntityChange.DELETED && !event.returned();
+        boolean wasOpen = event.change() != EntityChange.CREATED && !event.previousReturned();
+        service.applyDelta(event.borrowerId(),
+                0, 0,
+                flag(open) - flag(wasOpen),
+                flag(event.returned()) - flag(event.previousReturned()),
+                0);
+    }
+
+    @EventListener
+    public void onFeedbackChanged(FeedbackChangedEvent event) {
+        service.applyDelta(event.authorId(), 0, 0, 0, 0, existenceDelta(event.change()));
+    }
+
+    private static long existenceDelta(EntityChange change) {
+        return switch (change) {
+            case CREATED -> 1;
+            case DELETED -> -1;
+            case UPDATED -> 0;
+        };
+    }
+
+    private static long flag(boolean value) {
+        return value ? 1 : 0;
+    }
+}
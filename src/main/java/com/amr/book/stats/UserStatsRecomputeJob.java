@@ -0,0 +1,55 @@
+package com.amr.book.stats;
+
+import com.amr.book.scheduling.ClusterJobRunner;
+import com.amr.book.scheduling.JobShard;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * rebuilds user_stats from the source tables in small id ranges (counted on every shard, one upsert per range),
+ * for the first deployment and to repair counters after manual data fixes.
+ * the scheduled run is shared by the nodes through ClusterJobRunner
+ * */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserStatsRecomputeJob {
+
+    private final UserStatsService service;
+    private final ClusterJobRunner clusterJobRunner;
+
+    @Value("${application.stats.recompute-batch-size:500}")
+    private int batchSize;
+    @Value("${application.stats.recompute-shards:8}")
+    private int shards;
+
+    //the id ranges are spread over the nodes of the cluster
+    @Scheduled(cron = "${application.stats.recompute-cron:0 30 3 * * *}")
+    public void scheduledRecompute() {
+        clusterJobRunner.runSharded("user-stats-recompute", shards, this::recompute);
+    }
+
+    public int recomputeAll() {
+        return recompute(new JobShard(0, 1, new AtomicBoolean(true)));
+    }
+
+    //the batches of the shard: the range number modulo the shard count is the shard index
+    private int recompute(JobShard shard) {
+        long start = System.currentTimeMillis();
+        int maxId = service.maxUserId();
+        int rows = 0;
+        for (int from = 0, range = 0; from <= maxId && shard.isHeld(); from += batchSize, range++) {
+            if (shard.owns(range)) {
+                rows += service.recompute(from, from + batchSize);
+            }
+        }
+        log.info("user stats recomputed for {} users (shard {}/{}) in {} ms",
+                rows, shard.index(), shard.count(), System.currentTimeMillis() - start);
+        return rows;
+    }
+}
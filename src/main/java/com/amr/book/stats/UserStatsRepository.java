@@ -0,0 +1,6 @@
+package com.amr.book.stats;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface UserStatsRepository extends JpaRepository<UserStats, Integer> {
+}
@@ -0,0 +1,20 @@
+package com.amr.book.stats;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserStatsResponse {
+    private long booksOwned;
+    private long booksShared;
+    private long currentLoans;
+    private long booksReturned;
+    private long feedbackGiven;
+}
@@ -0,0 +1,161 @@
+package com.amr.book.stats;
+
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import com.amr.book.sharding.ShardTemplate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+
+@Service
+@RequiredArgsConstructor
+public class UserStatsService {
+
+    //one statement whether the row exists or not, the row lock is only held until the writer commits
+    private static final String APPLY_DELTA = """
+            INSERT INTO user_stats (user_id, books_owned, books_shared, current_loans, books_returned, feedback_given, last_modified_date)
+            VALUES (?, ?, ?, ?, ?, ?, now())
+            ON CONFLICT (user_id) DO UPDATE SET
+                books_owned = user_stats.books_owned + EXCLUDED.books_owned,
+                books_shared = user_stats.books_shared + EXCLUDED.books_shared,
+                current_loans = user_stats.current_loans + EXCLUDED.current_loans,
+                books_returned = user_stats.books_returned + EXCLUDED.books_returned,
+                feedback_given = user_stats.feedback_given + EXCLUDED.feedback_given,
+                last_modified_date = EXCLUDED.last_modified_date
+            """;
+
+    //the counters of the users of a range found on one database of the book domain (a shard or the global one)
+    private static final String COUNT_RANGE = """
+            SELECT c.user_id, sum(c.books_owned), sum(c.books_shared), sum(c.current_loans),
+                   sum(c.books_returned), sum(c.feedback_given)
+            FROM (
+                SELECT b.owner_id AS user_id, count(*) AS books_owned, count(*) FILTER (WHERE b.shareable) AS books_shared,
+                       0 AS current_loans, 0 AS books_returned, 0 AS feedback_given
+                FROM book b WHERE b.owner_id >= ? AND b.owner_id < ? GROUP BY b.owner_id
+                UNION ALL
+                SELECT h.user_id, 0, 0, count(*), 0, 0
+                FROM book_transaction_history h WHERE h.user_id >= ? AND h.user_id < ? AND NOT h.returned GROUP BY h.user_id
+                UNION ALL
+                SELECT h.user_id, 0, 0, 0, count(*), 0
+                FROM book_transaction_history_all h WHERE h.user_id >= ? AND h.user_id < ? AND h.returned GROUP BY h.user_id
+                UNION ALL
+                SELECT f.created_by, 0, 0, 0, 0, count(*)
+                FROM feedback f WHERE f.created_by >= ? AND f.created_by < ? GROUP BY f.created_by
+            ) c
+            GROUP BY c.user_id
+            """;
+    //every user of the range gets a row, zeros when no database counted anything for them
+    private static final String RECOMPUTE_RANGE = """
+            INSERT INTO user_stats (user_id, books_owned, books_shared, current_loans, books_returned, feedback_given, last_modified_date)
+            SELECT u.id, coalesce(c.books_owned, 0), coalesce(c.books_shared, 0), coalesce(c.current_loans, 0),
+                   coalesce(c.books_returned, 0), coalesce(c.feedback_given, 0), now()
+            FROM _user u
+            LEFT JOIN unnest(?, ?, ?, ?, ?, ?)
+                AS c(user_id, books_owned, books_shared, current_loans, books_returned, feedback_given)
+                ON c.user_id = u.id
+            WHERE u.id >= ? AND u.id < ?
+            ON CONFLICT (user_id) DO UPDATE SET
+                books_owned = EXCLUDED.books_owned,
+                books_shared = EXCLUDED.books_shared,
+                current_loans = EXCLUDED.current_loans,
+                books_returned = EXCLUDED.books_returned,
+                feedback_given = EXCLUDED.feedback_given,
+                last_modified_date = EXCLUDED.last_modified_date
+            """;
+
+    private final UserStatsRepository repository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ShardTemplate shardTemplate;
+
+    public UserStatsResponse findStats(Integer userId) {
+        return repository.findById(userId)
+                .map(stats -> UserStatsResponse.builder()
+                        .booksOwned(stats.getBooksOwned())
+                        .booksShared(stats.getBooksShared())
+                        .currentLoans(stats.getCurrentLoans())
+                        .booksReturned(stats.getBooksReturned())
+                        .feedbackGiven(stats.getFeedbackGiven())
+                        .build())
+                //no row yet means the user never wrote anything
+                .orElseGet(UserStatsResponse::new);
+    }
+
+    /**
+     * called from inside the writer transaction (the JdbcTemplate joins its connection),
+     * so the counters commit or roll back with the row that moved them.
+     * a row written on a book shard cannot share its transaction with user_stats (global database):
+     * the counters are moved once the shard transaction committed
+     * */
+    public void applyDelta(Integer userId, long booksOwned, long booksShared,
+                           long currentLoans, long booksReturned, long feedbackGiven) {
+        if (userId == null
+                || (booksOwned == 0 && booksShared == 0 && currentLoans == 0 && booksReturned == 0 && feedbackGiven == 0)) {
+            return;
+        }
+        if (ShardContext.current() != ShardRouter.GLOBAL && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    //a new transaction: the connection bound to the thread is still the one of the shard
+                    TransactionTemplate global = new TransactionTemplate(transactionManager);
+                    global.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                    ShardContext.run(ShardRouter.GLOBAL, () -> global.executeWithoutResult(status -> jdbcTemplate.update(
+                            APPLY_DELTA, userId, booksOwned, booksShared, currentLoans, booksReturned, feedbackGiven)));
+                }
+            });
+            return;
+        }
+        jdbcTemplate.update(APPLY_DELTA, userId, booksOwned, booksShared, currentLoans, booksReturned, feedbackGiven);
+    }
+
+    /**
+     * recomputes the rows of the users with fromId <= id < toId from the source tables.
+     * the books, loans and feedbacks may live on the shards: every database counts its rows, the sums
+     * are written to user_stats (global database) by one upsert
+     * @return the number of rows written
+     * */
+    public int recompute(int fromId, int toId) {
+        Map<Integer, long[]> counters = new HashMap<>();
+        shardTemplate.scatter(shard -> jdbcTemplate.query(COUNT_RANGE, (rs, rowNum) -> new long[]{
+                        rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getLong(6)},
+                        fromId, toId, fromId, toId, fromId, toId, fromId, toId))
+                .forEach(rows -> rows.forEach(row -> counters.merge((int) row[0], row, (sum, more) -> {
+                    for (int i = 1; i < sum.length; i++) {
+                        sum[i] += more[i];
+                    }
+                    return sum;
+                })));
+        Integer[] userIds = counters.keySet().toArray(Integer[]::new);
+        Long[][] columns = new Long[5][userIds.length];
+        for (int i = 0; i < userIds.length; i++) {
+            long[] row = counters.get(userIds[i]);
+            for (int column = 0; column < columns.length; column++) {
+                columns[column][i] = row[column + 1];
+            }
+        }
+        return ShardContext.call(ShardRouter.GLOBAL, () -> jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(RECOMPUTE_RANGE);
+            statement.setArray(1, connection.createArrayOf("integer", userIds));
+            for (int column = 0; column < columns.length; column++) {
+                statement.setArray(column + 2, connection.createArrayOf("bigint", columns[column]));
+            }
+            statement.setInt(7, fromId);
+            statement.setInt(8, toId);
+            return statement;
+        }));
+    }
+
+    public Integer maxUserId() {
+        return jdbcTemplate.queryForObject("SELECT coalesce(max(id), 0) FROM _user", Integer.class);
+    }
+}
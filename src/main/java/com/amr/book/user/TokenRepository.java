@@ -1,10 +1,21 @@
 package com.amr.book.user;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 public interface TokenRepository extends JpaRepository<Token,Integer> {
     //optional is rapper to null not found Exception
     Optional<Token>findByToken(String token);
+
+    //the newest activation code of the user that can still be used
+    Optional<Token> findFirstByUserIdAndValidatedAtIsNullAndExpiresAtAfterOrderByCreatedAtDesc(Integer userId, LocalDateTime now);
+
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.user.id = :userId AND t.validatedAt IS NULL AND t.expiresAt <= :now")
+    int deleteExpiredByUserId(@Param("userId") Integer userId, @Param("now") LocalDateTime now);
 }
@@ -103,7 +103,8 @@ public class User implements UserDetails, Principal {
     }
     @Override
     public boolean isAccountNonLocked() {
-        return true;
+        //locked when the deletion of the account is requested
+        return !accountLocked;
     }
     @Override
     public boolean isCredentialsNonExpired() {
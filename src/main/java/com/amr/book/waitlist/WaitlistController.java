@@ -0,0 +1,50 @@
+package com.amr.book.waitlist;
+
+import com.amr.book.user.User;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("waitlists")
+@RequiredArgsConstructor
+@Tag(name = "Waitlists")
+public class WaitlistController {
+
+    private final WaitlistService service;
+
+    @PostMapping("/books/{book-id}")
+    public ResponseEntity<WaitlistPositionResponse> join(
+            @PathVariable("book-id") Integer bookId,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.join(bookId, user.getId()));
+    }
+
+    @GetMapping("/books/{book-id}")
+    public ResponseEntity<WaitlistPositionResponse> position(
+            @PathVariable("book-id") Integer bookId,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        return ResponseEntity.ok(service.position(bookId, user.getId()));
+    }
+
+    @DeleteMapping("/books/{book-id}")
+    public ResponseEntity<Void> leave(
+            @PathVariable("book-id") Integer bookId,
+            Authentication connectedUser
+    ) {
+        User user = (User) connectedUser.getPrincipal();
+        service.leave(bookId, user.getId());
+        return ResponseEntity.noContent().build();
+    }
+}
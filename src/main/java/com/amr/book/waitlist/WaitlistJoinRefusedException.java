@@ -0,0 +1,18 @@
+package com.amr.book.waitlist;
+
+import com.amr.book.handler.BusinessErrorCodes;
+import lombok.Getter;
+
+/**
+ * the book does not exist, or the user cannot wait for it (their own book, not shared, available)
+ * */
+@Getter
+public class WaitlistJoinRefusedException extends RuntimeException {
+
+    private final BusinessErrorCodes code;
+
+    public WaitlistJoinRefusedException(BusinessErrorCodes code, String message) {
+        super(message);
+        this.code = code;
+    }
+}
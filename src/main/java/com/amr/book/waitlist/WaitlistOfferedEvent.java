@@ -0,0 +1,10 @@
+package com.amr.book.waitlist;
+
+/**
+ * a returned book was handed to the head of its waitlist
+ * */
+public record WaitlistOfferedEvent(
+        Integer bookId,
+        Integer userId
+) {
+}
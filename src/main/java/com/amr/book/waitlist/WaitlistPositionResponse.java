@@ -0,0 +1,11 @@
+package com.amr.book.waitlist;
+
+/**
+ * position 1 is the head of the queue, 0 when the user is not waiting
+ * */
+public record WaitlistPositionResponse(
+        Integer bookId,
+        int position,
+        int waiting
+) {
+}
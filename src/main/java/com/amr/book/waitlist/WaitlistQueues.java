@@ -0,0 +1,135 @@
+package com.amr.book.waitlist;
+
+import com.amr.book.common.IntIntHashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * in memory mirror of the WAITING entries of book_waitlist, one immutable queue per book swapped with
+ * compare-and-set: readers never lock, writers retry instead of waiting. the position of a user is one
+ * hash lookup. a queue is reloaded from the table after the refresh interval, which also brings the
+ * entries written by the other nodes
+ * */
+final class WaitlistQueues {
+
+    private final ConcurrentHashMap<Integer, AtomicReference<BookQueue>> queues = new ConcurrentHashMap<>();
+    private final long refreshNanos;
+
+    WaitlistQueues(long refreshMillis) {
+        this.refreshNanos = refreshMillis * 1_000_000L;
+    }
+
+    /**
+     * @return null when the book was never loaded or its queue is older than the refresh interval
+     * */
+    BookQueue fresh(int bookId) {
+        AtomicReference<BookQueue> reference = queues.get(bookId);
+        BookQueue queue = reference == null ? null : reference.get();
+        return queue == null || System.nanoTime() - queue.loadedAt > refreshNanos ? null : queue;
+    }
+
+    BookQueue loaded(int bookId, long[] entryIds, int[] users) {
+        BookQueue queue = new BookQueue(entryIds, users, System.nanoTime());
+        queues.computeIfAbsent(bookId, id -> new AtomicReference<>()).set(queue);
+        return queue;
+    }
+
+    void joined(int bookId, long entryId, int userId) {
+        update(bookId, queue -> queue.with(entryId, userId));
+    }
+
+    void removed(int bookId, int userId) {
+        update(bookId, queue -> queue.without(userId));
+    }
+
+    //a book not loaded yet is read from the table on its next lookup, nothing to update
+    private void update(int bookId, UnaryOperator<BookQueue> change) {
+        AtomicReference<BookQueue> reference = queues.get(bookId);
+        if (reference == null) {
+            return;
+        }
+        BookQueue current;
+        BookQueue updated;
+        do {
+            current = reference.get();
+            if (current == null) {
+                return;
+            }
+            updated = change.apply(current);
+        } while (current != updated && !reference.compareAndSet(current, updated));
+    }
+
+    static final class BookQueue {
+
+        //FIFO order: the ids of book_waitlist, ascending
+        private final long[] entryIds;
+        private final int[] users;
+        //user -> position, 1 for the head
+        private final IntIntHashMap positions;
+        private final long loadedAt;
+
+        private BookQueue(long[] entryIds, int[] users, long loadedAt) {
+            this.entryIds = entryIds;
+            this.users = users;
+            this.loadedAt = loadedAt;
+            this.positions = new IntIntHashMap(Math.max(users.length, 4), 0);
+            for (int i = 0; i < users.length; i++) {
+                positions.put(users[i], i + 1);
+            }
+        }
+
+        /**
+         * @return 1 for the head of the queue, 0 when the user is not waiting
+         * */
+        int position(int userId) {
+            return positions.get(userId);
+        }
+
+        int size() {
+            return users.length;
+        }
+
+        int[] users() {
+            return users.clone();
+        }
+
+        private BookQueue with(long entryId, int userId) {
+            if (positions.containsKey(userId)) {
+                return this;
+            }
+            //usually the tail, a join seen late (another node) goes to its place in the id order
+            int index = Arrays.binarySearch(entryIds, entryId);
+            if (index >= 0) {
+                return this;
+            }
+            index = -index - 1;
+            long[] ids = new long[entryIds.length + 1];
+            int[] waiting = new int[users.length + 1];
+            System.arraycopy(entryIds, 0, ids, 0, index);
+            System.arraycopy(users, 0, waiting, 0, index);
+            ids[index] = entryId;
+            waiting[index] = userId;
+            System.arraycopy(entryIds, index, ids, index + 1, entryIds.length - index);
+            System.arraycopy(users, index, waiting, index + 1, users.length - index);
+            return new BookQueue(ids, waiting, loadedAt);
+        }
+
+        private BookQueue without(int userId) {
+            int position = positions.get(userId);
+            if (position == 0) {
+                return this;
+            }
+            int index = position - 1;
+            long[] ids = new long[entryIds.length - 1];
+            int[] waiting = new int[users.length - 1];
+            System.arraycopy(entryIds, 0, ids, 0, index);
+            System.arraycopy(users, 0, waiting, 0, index);
+            System.arraycopy(entryIds, index + 1, ids, index, ids.length - index);
+            System.arraycopy(users, index + 1, waiting, index, waiting.length - index);
+            return new BookQueue(ids, waiting, loadedAt);
+        }
+    }
+}
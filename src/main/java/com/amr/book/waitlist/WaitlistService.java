@@ -0,0 +1,236 @@
+package com.amr.book.waitlist;
+
+import com.amr.book.common.EntityChange;
+import com.amr.book.handler.BusinessErrorCodes;
+import com.amr.book.history.LoanChangedEvent;
+import com.amr.book.scheduling.ClusterJobRunner;
+import com.amr.book.sharding.ShardContext;
+import com.amr.book.sharding.ShardRouter;
+import com.amr.book.sharding.ShardTemplate;
+import com.amr.book.waitlist.WaitlistQueues.BookQueue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * FIFO waitlist of a book out on loan. book_waitlist is the durable state, WaitlistQueues mirrors the
+ * waiting users for the position lookups. every write is one short autocommit statement, no table lock:
+ * the handoff marks the head OFFERED with FOR UPDATE SKIP LOCKED and the partial unique index
+ * book_waitlist_offered_idx refuses a second offer of the same book, so a book is never handed twice.
+ * the offer ends when the user borrows the book (the loan is created), leaves, or lets it expire,
+ * then the next user gets it. only a shared book out on loan has a waitlist, and not for its owner:
+ * an available book would never be handed over (the handoff follows a return)
+ * */
+@Slf4j
+@Service
+public class WaitlistService {
+
+    private static final String JOIN = """
+            INSERT INTO book_waitlist (book_id, user_id, status) VALUES (?, ?, 'WAITING')
+            ON CONFLICT DO NOTHING
+            RETURNING id
+            """;
+    private static final String BOOK_STATE = """
+            SELECT b.owner_id, b.shareable, b.archived,
+                   EXISTS (SELECT 1 FROM book_transaction_history h
+                           WHERE h.book_id = b.id AND NOT h.return_approved) AS on_loan
+            FROM book b
+            WHERE b.id = ?
+            """;
+    private static final String LEAVE = """
+            UPDATE book_waitlist SET status = ?, closed_at = now()
+            WHERE book_id = ? AND user_id = ? AND status = ?
+            """;
+    private static final String HAND_OFF = """
+            UPDATE book_waitlist SET status = 'OFFERED', offered_at = now()
+            WHERE id = (
+                SELECT id FROM book_waitlist
+                WHERE book_id = ? AND status = 'WAITING'
+                ORDER BY id
+                LIMIT 1
+                FOR UPDATE SKIP LOCKED)
+            RETURNING user_id
+            """;
+    private static final String SERVE = """
+            UPDATE book_waitlist SET status = 'SERVED', closed_at = now()
+            WHERE book_id = ? AND user_id = ? AND status = 'OFFERED'
+            """;
+    private static final String EXPIRE = """
+            UPDATE book_waitlist SET status = 'EXPIRED', closed_at = now()
+            WHERE status = 'OFFERED' AND offered_at < now() - make_interval(secs => ?)
+            RETURNING book_id, user_id
+            """;
+    private static final String WAITING = """
+            SELECT id, user_id FROM book_waitlist
+            WHERE book_id = ? AND status = 'WAITING'
+            ORDER BY id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ClusterJobRunner clusterJobRunner;
+    private final WaitlistQueues queues;
+    private final Duration offerTimeout;
+    private final ShardRouter shardRouter;
+    private final ShardTemplate shardTemplate;
+
+    private record BookState(Integer ownerId, boolean shareable, boolean archived, boolean onLoan) {
+    }
+
+    public WaitlistService(JdbcTemplate jdbcTemplate,
+                           ApplicationEventPublisher eventPublisher,
+                           ClusterJobRunner clusterJobRunner,
+                           ShardRouter shardRouter,
+                           ShardTemplate shardTemplate,
+                           @Value("${application.waitlist.refresh-interval:5000}") long refreshInterval,
+                           @Value("${application.waitlist.offer-timeout:24h}") Duration offerTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.clusterJobRunner = clusterJobRunner;
+        this.queues = new WaitlistQueues(refreshInterval);
+        this.offerTimeout = offerTimeout;
+        this.shardRouter = shardRouter;
+        this.shardTemplate = shardTemplate;
+    }
+
+    /**
+     * @throws WaitlistJoinRefusedException when the book does not exist or has no waitlist for this user
+     * */
+    public WaitlistPositionResponse join(Integer bookId, Integer userId) {
+        checkCanWait(bookId, userId);
+        List<Long> inserted = jdbcTemplate.queryForList(JOIN, Long.class, bookId, userId);
+        if (!inserted.isEmpty()) {
+            queues.joined(bookId, inserted.get(0), userId);
+        }
+        //already waiting (or offered): the current position
+        return position(bookId, userId);
+    }
+
+    public void leave(Integer bookId, Integer userId) {
+        if (jdbcTemplate.update(LEAVE, "LEFT", bookId, userId, "WAITING") > 0) {
+            queues.removed(bookId, userId);
+        } else if (jdbcTemplate.update(LEAVE, "DECLINED", bookId, userId, "OFFERED") > 0) {
+            handOff(bookId);
+        }
+    }
+
+    public WaitlistPositionResponse position(Integer bookId, Integer userId) {
+        BookQueue queue = queue(bookId);
+        return new WaitlistPositionResponse(bookId, queue.position(userId), queue.size());
+    }
+
+    /**
+     * offers the book to the head of its queue
+     * @return the user it was offered to, null when nobody waits or an offer is already open
+     * */
+    public Integer handOff(Integer bookId) {
+        Integer userId;
+        try {
+            List<Integer> offered = jdbcTemplate.queryForList(HAND_OFF, Integer.class, bookId);
+            userId = offered.isEmpty() ? null : offered.get(0);
+        } catch (DuplicateKeyException e) {
+            //another return of the same book was handed over first
+            return null;
+        }
+        if (userId != null) {
+            queues.removed(bookId, userId);
+            eventPublisher.publishEvent(new WaitlistOfferedEvent(bookId, userId));
+        }
+        return userId;
+    }
+
+    /**
+     * the offered user borrowed the book
+     * */
+    public boolean serve(Integer bookId, Integer userId) {
+        return jdbcTemplate.update(SERVE, bookId, userId) > 0;
+    }
+
+    @TransactionalEventListener
+    public void onLoanChanged(LoanChangedEvent event) {
+        if (event.bookId() == null) {
+            return;
+        }
+        if (event.change() == EntityChange.CREATED && event.borrowerId() != null) {
+            serve(event.bookId(), event.borrowerId());
+        } else if (event.change() == EntityChange.UPDATED && event.returnApproved() && !event.previousReturnApproved()) {
+            //the owner has the book back
+            handOff(event.bookId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.waitlist.expiry-interval:60000}")
+    public void expireOffers() {
+        clusterJobRunner.runExclusive("waitlist-offer-expiry", () -> {
+            List<Integer> books = new ArrayList<>();
+            jdbcTemplate.query(EXPIRE, (RowCallbackHandler) rs -> books.add(rs.getInt("book_id")), offerTimeout.toSeconds());
+            books.forEach(this::handOff);
+            if (!books.isEmpty()) {
+                log.info("{} waitlist offers expired", books.size());
+            }
+        });
+    }
+
+    private void checkCanWait(Integer bookId, Integer userId) {
+        BookState book = bookState(bookId);
+        if (book == null) {
+            throw new WaitlistJoinRefusedException(BusinessErrorCodes.BOOK_NOT_FOUND, "No book with the id " + bookId);
+        }
+        if (userId.equals(book.ownerId())) {
+            throw new WaitlistJoinRefusedException(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, "You cannot wait for your own book");
+        }
+        if (!book.shareable() || book.archived()) {
+            throw new WaitlistJoinRefusedException(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, "The book is not shared");
+        }
+        if (!book.onLoan()) {
+            throw new WaitlistJoinRefusedException(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, "The book is available, borrow it");
+        }
+    }
+
+    //the book and its loans live on the shard of the owner, an id given before sharding falls back to every shard
+    private BookState bookState(int bookId) {
+        BookState book = ShardContext.call(shardRouter.shardOfId(bookId), () -> readBookState(bookId));
+        if (book == null && shardRouter.isEnabled()) {
+            book = shardTemplate.scatter(shard -> readBookState(bookId)).stream()
+                    .filter(Objects::nonNull)
+                    .findFirst()
+                    .orElse(null);
+        }
+        return book;
+    }
+
+    private BookState readBookState(int bookId) {
+        List<BookState> rows = jdbcTemplate.query(BOOK_STATE, (rs, rowNum) -> new BookState(
+                rs.getObject("owner_id", Integer.class),
+                rs.getBoolean("shareable"),
+                rs.getBoolean("archived"),
+                rs.getBoolean("on_loan")), bookId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private BookQueue queue(int bookId) {
+        BookQueue queue = queues.fresh(bookId);
+        if (queue != null) {
+            return queue;
+        }
+        List<long[]> rows = jdbcTemplate.query(WAITING, (rs, rowNum) -> new long[]{rs.getLong("id"), rs.getInt("user_id")}, bookId);
+        long[] entryIds = new long[rows.size()];
+        int[] users = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            entryIds[i] = rows.get(i)[0];
+            users[i] = (int) rows.get(i)[1];
+        }
+        return queues.loaded(bookId, entryIds, users);
+    }
+}
@@ -0,0 +1,304 @@
+package com.amr.book.warmup;
+
+import com.amr.book.auth.AuthenticationResponse;
+import com.amr.book.autocomplete.SuggestionKind;
+import com.amr.book.autocomplete.SuggestionResponse;
+import com.amr.book.book.BookResponse;
+import com.amr.book.common.KeysetPageResponse;
+import com.amr.book.email.EmailTemplate;
+import com.amr.book.leaderboard.LeaderboardEntry;
+import com.amr.book.security.JwtService;
+import com.amr.book.sharding.ShardTemplate;
+import com.amr.book.user.User;
+import com.amr.book.waitlist.WaitlistPositionResponse;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * synthetic work on the paths the first requests take (jjwt, bcrypt, the activation email template,
+ * jackson serializers of the responses, the user lookup of the jwt filter) and the connection pools filled,
+ * so the JIT compiled code and the connections are there before the traffic.
+ * runners are called before boot reports ReadinessState.ACCEPTING_TRAFFIC, so /actuator/health/readiness
+ * stays down until the warm-up is over and a rolling deploy keeps sending requests to the old instances.
+ * the warm-up is given up at max-duration, even in the middle of an iteration (a slow database), the
+ * threads left are interrupted.
+ * metrics: application.warmup.duration, application.warmup.latency (by phase, first iteration and last ones)
+ * */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "application.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class WarmupRunner implements ApplicationRunner {
+
+    private static final String EMAIL = "warm-up@localhost";
+    private static final String PASSWORD = "warm-up password";
+
+    private final JwtService jwtService;
+    private final PasswordEncoder passwordEncoder;
+    private final SpringTemplateEngine templateEngine;
+    private final ObjectMapper objectMapper;
+    private final UserDetailsService userDetailsService;
+    private final DataSource dataSource;
+    private final ShardTemplate shardTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${application.warmup.max-duration:30s}")
+    private Duration maxDuration;
+    @Value("${application.warmup.threads:4}")
+    private int threads;
+    @Value("${application.warmup.jwt-iterations:5000}")
+    private int jwtIterations;
+    @Value("${application.warmup.password-iterations:20}")
+    private int passwordIterations;
+    @Value("${application.warmup.template-iterations:200}")
+    private int templateIterations;
+    @Value("${application.warmup.json-iterations:5000}")
+    private int jsonIterations;
+    @Value("${application.warmup.user-lookup-iterations:200}")
+    private int userLookupIterations;
+    @Value("${application.warmup.connections:10}")
+    private int connections;
+
+    private final User user = User.builder()
+            .firstname("Warm")
+            .lastname("Up")
+            .email(EMAIL)
+            .enabled(true)
+            .roles(List.of())
+            .build();
+    private final KeysetPageResponse<BookResponse> page = new KeysetPageResponse<>(List.of(BookResponse.builder()
+            .id(1).title("title").authorName("author").isbn("isbn").synopsis("synopsis")
+            .ownerId(1).owner("owner").shareable(true).build()), 10, 1, false);
+    private final List<Object> responses = List.of(
+            AuthenticationResponse.builder().token("token").build(),
+            page,
+            new LeaderboardEntry(1, 4.5, 10),
+            new SuggestionResponse("title", SuggestionKind.TITLE, 1),
+            new WaitlistPositionResponse(1, 1, 1)
+    );
+
+    public WarmupRunner(JwtService jwtService,
+                        PasswordEncoder passwordEncoder,
+                        SpringTemplateEngine templateEngine,
+                        ObjectMapper objectMapper,
+                        UserDetailsService userDetailsService,
+                        DataSource dataSource,
+                        ShardTemplate shardTemplate,
+                        MeterRegistry meterRegistry) {
+        this.jwtService = jwtService;
+        this.passwordEncoder = passwordEncoder;
+        this.templateEngine = templateEngine;
+        this.objectMapper = objectMapper;
+        this.userDetailsService = userDetailsService;
+        this.dataSource = dataSource;
+        this.shardTemplate = shardTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        long deadline = start + maxDuration.toNanos();
+        List<Phase> phases = List.of(
+                new Phase("jwt", jwtIterations, this::jwt),
+                new Phase("password", passwordIterations, this::password),
+                new Phase("template", templateIterations, this::template),
+                new Phase("json", jsonIterations, this::json),
+                new Phase("user-lookup", userLookupIterations, this::userLookup),
+                new Phase("connections", 1, () -> fillPools(deadline))
+        );
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, phases.size())), runnable -> {
+            Thread thread = new Thread(runnable, "warm-up-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(phases.stream()
+                    .map(phase -> CompletableFuture.runAsync(() -> phase.run(deadline), pool))
+                    .toArray(CompletableFuture[]::new)).get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("warm-up stopped at its max duration of {}", maxDuration);
+        } catch (ExecutionException e) {
+            log.warn("warm-up failed: {}", e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        long duration = System.nanoTime() - start;
+        report(phases, duration);
+    }
+
+    private void jwt() {
+        String token = jwtService.generateToken(Map.<String, Object>of("fullName", user.fullName()), user);
+        jwtService.isTokenValid(token, user);
+    }
+
+    private void password() {
+        passwordEncoder.matches(PASSWORD, passwordEncoder.encode(PASSWORD));
+    }
+
+    private void template() {
+        Context context = new Context();
+        context.setVariables(Map.of(
+                "username", user.fullName(),
+                "confirmationUrl", "http://localhost/activate-account",
+                "activation_code", "123456"));
+        templateEngine.process(EmailTemplate.ACTIVATE_ACCOUNT.getName(), context);
+    }
+
+    private void json() {
+        try {
+            objectMapper.writeValueAsBytes(responses);
+            objectMapper.readValue(objectMapper.writeValueAsBytes(page),
+                    new TypeReference<KeysetPageResponse<BookResponse>>() {});
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //the jpa query of the jwt filter, no such user
+    private void userLookup() {
+        try {
+            userDetailsService.loadUserByUsername(EMAIL);
+        } catch (UsernameNotFoundException ignored) {
+            //expected
+        }
+    }
+
+    //the connections are all held at the same time so the pool has to open them.
+    //a getConnection can block for the connection timeout of the pool, no new one is asked after the deadline
+    private void fillPools(long deadline) {
+        shardTemplate.scatter(shard -> {
+            List<Connection> held = new ArrayList<>();
+            try {
+                int size = poolSize();
+                for (int i = 0; i < size && System.nanoTime() < deadline; i++) {
+                    Connection connection = dataSource.getConnection();
+                    held.add(connection);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SELECT 1");
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                for (Connection connection : held) {
+                    try {
+                        connection.close();
+                    } catch (SQLException ignored) {
+                        //back to the pool or gone, nothing to do
+                    }
+                }
+            }
+            return held.size();
+        });
+    }
+
+    private int poolSize() throws SQLException {
+        if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            return Math.min(connections, dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize());
+        }
+        return connections;
+    }
+
+    private void report(List<Phase> phases, long duration) {
+        TimeGauge.builder("application.warmup.duration", () -> duration, TimeUnit.NANOSECONDS)
+                .description("time spent warming up before reporting ready")
+                .register(meterRegistry);
+        for (Phase phase : phases) {
+            Gauge.builder("application.warmup.latency", phase, p -> p.firstNanos / 1_000_000.0)
+                    .description("latency of a warm-up iteration in ms, the first one and the mean of the last tenth")
+                    .tag("phase", phase.name)
+                    .tag("iteration", "first")
+                    .register(meterRegistry);
+            Gauge.builder("application.warmup.latency", phase, p -> p.lastNanos / 1_000_000.0)
+                    .description("latency of a warm-up iteration in ms, the first one and the mean of the last tenth")
+                    .tag("phase", phase.name)
+                    .tag("iteration", "last")
+                    .register(meterRegistry);
+        }
+        log.info("warm-up done in {} ms: {}", TimeUnit.NANOSECONDS.toMillis(duration), phases.stream()
+                .map(Phase::toString)
+                .collect(Collectors.joining(", ")));
+    }
+
+    private static final class Phase {
+        private final String name;
+        private final int iterations;
+        private final Runnable work;
+        private int done;
+        private long firstNanos;
+        private long lastNanos;
+        private boolean failed;
+
+        private Phase(String name, int iterations, Runnable work) {
+            this.name = name;
+            this.iterations = iterations;
+            this.work = work;
+        }
+
+        //stops at the deadline, a failing phase does not hold the others (nor the readiness)
+        void run(long deadline) {
+            long[] latencies = new long[Math.max(iterations, 1)];
+            try {
+                while (done < iterations && System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    work.run();
+                    latencies[done++] = System.nanoTime() - start;
+                }
+            } catch (RuntimeException e) {
+                failed = true;
+                log.warn("warm-up of {} stopped after {} iterations: {}", name, done, e.getMessage());
+            }
+            if (done > 0) {
+                firstNanos = latencies[0];
+                int tail = Math.max(done / 10, 1);
+                long sum = 0;
+                for (int i = done - tail; i < done; i++) {
+                    sum += latencies[i];
+                }
+                lastNanos = sum / tail;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d x (%.2f -> %.3f ms)%s", name, done,
+                    firstNanos / 1_000_000.0, lastNanos / 1_000_000.0, failed ? " failed" : "");
+        }
+    }
+}
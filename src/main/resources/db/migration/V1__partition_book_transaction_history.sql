@@ -0,0 +1,105 @@
+-- book_transaction_history becomes range partitioned by created_date, one partition per month.
+-- the returned and approved loans older than the retention are moved by HistoryArchivalJob to
+-- book_transaction_history_archive (one partition per year), book_transaction_history_all reads both.
+
+CREATE OR REPLACE FUNCTION create_book_transaction_history_partition(month_start date) RETURNS void AS $$
+DECLARE
+    from_date date := date_trunc('month', month_start)::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF book_transaction_history FOR VALUES FROM (%L) TO (%L)',
+                   'book_transaction_history_p' || to_char(from_date, 'YYYYMM'),
+                   from_date,
+                   (from_date + interval '1 month')::date);
+END
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION create_book_transaction_history_archive_partition(year_start date) RETURNS void AS $$
+DECLARE
+    from_date date := date_trunc('year', year_start)::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF book_transaction_history_archive FOR VALUES FROM (%L) TO (%L)',
+                   'book_transaction_history_archive_p' || to_char(from_date, 'YYYY'),
+                   from_date,
+                   (from_date + interval '1 year')::date);
+END
+$$ LANGUAGE plpgsql;
+
+-- an existing plain table (created by ddl-auto) is kept aside and copied into the partitions below
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = 'book_transaction_history' AND relkind = 'r') THEN
+        ALTER TABLE book_transaction_history RENAME TO book_transaction_history_legacy;
+    END IF;
+END
+$$;
+
+CREATE TABLE IF NOT EXISTS book_transaction_history (
+    id                 integer      NOT NULL,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    returned           boolean      NOT NULL DEFAULT false,
+    return_approved    boolean      NOT NULL DEFAULT false,
+    book_id            integer,
+    user_id            integer,
+    -- the partition key has to be part of the primary key
+    PRIMARY KEY (id, created_date)
+) PARTITION BY RANGE (created_date);
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_default PARTITION OF book_transaction_history DEFAULT;
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_archive (
+    id                 integer      NOT NULL,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    returned           boolean      NOT NULL,
+    return_approved    boolean      NOT NULL,
+    book_id            integer,
+    user_id            integer,
+    archived_at        timestamp(6) NOT NULL DEFAULT now(),
+    PRIMARY KEY (id, created_date)
+) PARTITION BY RANGE (created_date);
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_archive_default PARTITION OF book_transaction_history_archive DEFAULT;
+
+DO $$
+DECLARE
+    month_start date;
+BEGIN
+    IF to_regclass('book_transaction_history_legacy') IS NOT NULL THEN
+        FOR month_start IN EXECUTE
+                'SELECT DISTINCT date_trunc(''month'', created_date)::date FROM book_transaction_history_legacy'
+        LOOP
+            PERFORM create_book_transaction_history_partition(month_start);
+        END LOOP;
+    END IF;
+    -- the maintenance job keeps a few months ahead, the default partition stays empty
+    FOR i IN 0..3 LOOP
+        PERFORM create_book_transaction_history_partition((date_trunc('month', now()) + make_interval(months => i))::date);
+    END LOOP;
+    IF to_regclass('book_transaction_history_legacy') IS NOT NULL THEN
+        EXECUTE 'INSERT INTO book_transaction_history (id, created_date, last_modified_date, created_by, last_modified_by,'
+             || ' returned, return_approved, book_id, user_id)'
+             || ' SELECT id, created_date, last_modified_date, created_by, last_modified_by,'
+             || ' returned, return_approved, book_id, user_id FROM book_transaction_history_legacy';
+        EXECUTE 'DROP TABLE book_transaction_history_legacy';
+    END IF;
+END
+$$;
+
+-- partitioned indexes, every query below also bounds created_date so only the recent partitions are scanned
+CREATE INDEX IF NOT EXISTS book_transaction_history_user_created_idx ON book_transaction_history (user_id, created_date DESC);
+CREATE INDEX IF NOT EXISTS book_transaction_history_book_created_idx ON book_transaction_history (book_id, created_date DESC);
+-- open loans are never archived and are few, a partial index finds them in every partition
+CREATE INDEX IF NOT EXISTS book_transaction_history_open_idx ON book_transaction_history (book_id) WHERE NOT returned;
+CREATE INDEX IF NOT EXISTS book_transaction_history_archive_user_created_idx ON book_transaction_history_archive (user_id, created_date DESC);
+
+CREATE OR REPLACE VIEW book_transaction_history_all AS
+SELECT id, created_date, last_modified_date, created_by, last_modified_by, returned, return_approved, book_id, user_id
+FROM book_transaction_history
+UNION ALL
+SELECT id, created_date, last_modified_date, created_by, last_modified_by, returned, return_approved, book_id, user_id
+FROM book_transaction_history_archive;
@@ -0,0 +1,17 @@
+-- leases of the background jobs, shared by every node of the cluster (see ClusterJobRunner).
+-- the times come from the database clock so the nodes do not have to agree on theirs.
+
+CREATE TABLE IF NOT EXISTS job_lease (
+    job_name    varchar(100) NOT NULL,
+    shard       integer      NOT NULL,
+    owner       varchar(200) NOT NULL,
+    lease_until timestamptz  NOT NULL,
+    acquired_at timestamptz  NOT NULL,
+    PRIMARY KEY (job_name, shard)
+);
+
+-- the live nodes, used to give every node its fair share of the shards
+CREATE TABLE IF NOT EXISTS job_node (
+    node_id      varchar(200) PRIMARY KEY,
+    heartbeat_at timestamptz  NOT NULL
+);
@@ -0,0 +1,17 @@
+-- responses of the requests sent with an Idempotency-Key header (see IdempotencyFilter).
+-- status 0 is a request still running on one of the nodes, its row expires quickly so a crashed
+-- node does not block the key; a completed response is kept for the replay ttl
+
+CREATE TABLE IF NOT EXISTS idempotency_key (
+    scope        varchar(200) NOT NULL,
+    idem_key     varchar(200) NOT NULL,
+    fingerprint  varchar(64)  NOT NULL,
+    status       integer      NOT NULL,
+    content_type varchar(200),
+    body         bytea,
+    created_at   timestamptz  NOT NULL,
+    expires_at   timestamptz  NOT NULL,
+    PRIMARY KEY (scope, idem_key)
+);
+
+CREATE INDEX IF NOT EXISTS idempotency_key_expires_at_idx ON idempotency_key (expires_at);
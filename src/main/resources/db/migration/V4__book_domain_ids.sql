@@ -0,0 +1,32 @@
+-- ids of book, feedback and book_transaction_history (see ShardAwareIdGenerator):
+-- id = sequence value * 64 + bucket of the book owner, so an id tells which shard holds the row.
+-- the sequence starts above the ids given before, they stay valid but do not carry their bucket
+
+DO $$
+DECLARE
+    max_id bigint := 0;
+BEGIN
+    IF to_regclass('book') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM book' INTO max_id USING max_id;
+    END IF;
+    IF to_regclass('feedback') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM feedback' INTO max_id USING max_id;
+    END IF;
+    IF to_regclass('book_transaction_history_all') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM book_transaction_history_all' INTO max_id USING max_id;
+    END IF;
+    IF to_regclass('book_domain_id_seq') IS NULL THEN
+        -- the increment is the block of values a node takes at once, it must match ShardAwareIdGenerator.ALLOCATION
+        EXECUTE format('CREATE SEQUENCE book_domain_id_seq START WITH %s INCREMENT BY 50', max_id / 64 + 1);
+    END IF;
+END
+$$;
+
+-- the physical shard of every bucket once the buckets were moved by ReshardingTool,
+-- a bucket without a row lives on shard (bucket % shard count).
+-- previous_shard is set while the rows of a bucket are being moved
+CREATE TABLE IF NOT EXISTS shard_bucket (
+    bucket         integer PRIMARY KEY,
+    shard          integer NOT NULL,
+    previous_shard integer
+);
@@ -0,0 +1,24 @@
+-- waitlist of the books out on loan (see WaitlistService). the id gives the FIFO order.
+-- a book is offered to one user at a time: the partial unique index refuses a second OFFERED row,
+-- so two returns handled at the same moment cannot hand the book over twice
+
+CREATE TABLE IF NOT EXISTS book_waitlist (
+    id          bigserial PRIMARY KEY,
+    book_id     integer     NOT NULL,
+    user_id     integer     NOT NULL,
+    status      varchar(20) NOT NULL,
+    joined_at   timestamptz NOT NULL DEFAULT now(),
+    offered_at  timestamptz,
+    closed_at   timestamptz
+);
+
+-- one live entry per user and book
+CREATE UNIQUE INDEX IF NOT EXISTS book_waitlist_live_user_idx ON book_waitlist (book_id, user_id)
+    WHERE status IN ('WAITING', 'OFFERED');
+CREATE UNIQUE INDEX IF NOT EXISTS book_waitlist_offered_idx ON book_waitlist (book_id)
+    WHERE status = 'OFFERED';
+-- the head of a queue, and the queue loaded into memory
+CREATE INDEX IF NOT EXISTS book_waitlist_waiting_idx ON book_waitlist (book_id, id)
+    WHERE status = 'WAITING';
+CREATE INDEX IF NOT EXISTS book_waitlist_offered_at_idx ON book_waitlist (offered_at)
+    WHERE status = 'OFFERED';
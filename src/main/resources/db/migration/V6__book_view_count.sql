@@ -0,0 +1,9 @@
+-- view counts of the books (see BookViewCounter). kept out of the book table: the counters are
+-- flushed every few seconds and their updates must never lock the rows the catalog reads.
+-- on the global database, the book ids are unique across the shards
+
+CREATE TABLE IF NOT EXISTS book_view_count (
+    book_id     integer     PRIMARY KEY,
+    views       bigint      NOT NULL DEFAULT 0,
+    updated_at  timestamptz NOT NULL DEFAULT now()
+);
@@ -0,0 +1,30 @@
+-- accounts being deleted in the background (see AccountDeletionJob). the row is the checkpoint:
+-- the step, the shard and the last id processed, the job resumes from there after a crash.
+-- kept once done as the receipt of the deletion (no personal data, the user id only)
+
+CREATE TABLE IF NOT EXISTS account_deletion (
+    user_id       integer     PRIMARY KEY,
+    status        varchar(20) NOT NULL,
+    step          varchar(30) NOT NULL,
+    shard         integer     NOT NULL DEFAULT -1,
+    last_id       bigint      NOT NULL DEFAULT 0,
+    processed     bigint      NOT NULL DEFAULT 0,
+    requested_at  timestamptz NOT NULL DEFAULT now(),
+    updated_at    timestamptz NOT NULL DEFAULT now(),
+    finished_at   timestamptz
+);
+
+CREATE INDEX IF NOT EXISTS account_deletion_pending_idx ON account_deletion (requested_at)
+    WHERE status = 'PENDING';
+
+-- the keyset batches of the deletion: the feedbacks written by the user and the books they own.
+-- skipped on a new database, where hibernate creates the tables after flyway ran (the shards have them, db/shard)
+DO $$
+BEGIN
+    IF to_regclass('feedback') IS NOT NULL THEN
+        CREATE INDEX IF NOT EXISTS feedback_created_by_idx ON feedback (created_by, id);
+    END IF;
+    IF to_regclass('book') IS NOT NULL THEN
+        CREATE INDEX IF NOT EXISTS book_owner_idx ON book (owner_id);
+    END IF;
+END $$;
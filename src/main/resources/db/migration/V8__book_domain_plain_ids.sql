@@ -0,0 +1,25 @@
+-- the global database gives plain ids to the book domain (see ShardAwareIdGenerator), only the
+-- shards put the bucket in the id. the sequence goes past the ids given so far: the largest id,
+-- and every value of the blocks already taken by the nodes (sequence value * 64 + bucket)
+
+DO $$
+DECLARE
+    max_id bigint := 0;
+    next_id bigint;
+BEGIN
+    IF to_regclass('book_domain_id_seq') IS NULL THEN
+        RETURN;
+    END IF;
+    IF to_regclass('book') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM book' INTO max_id USING max_id;
+    END IF;
+    IF to_regclass('feedback') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM feedback' INTO max_id USING max_id;
+    END IF;
+    IF to_regclass('book_transaction_history_all') IS NOT NULL THEN
+        EXECUTE 'SELECT greatest($1, coalesce(max(id), 0)) FROM book_transaction_history_all' INTO max_id USING max_id;
+    END IF;
+    SELECT greatest(max_id + 1, (last_value + 50) * 64) INTO next_id FROM book_domain_id_seq;
+    PERFORM setval('book_domain_id_seq', next_id, false);
+END
+$$;
@@ -0,0 +1,110 @@
+-- schema of a book shard (application.sharding.enabled): the book domain tables of the owners whose
+-- bucket lives here. the identity tables (_user, role, token) stay on the global database, so the
+-- owner_id, user_id and created_by columns have no foreign key here
+
+CREATE SEQUENCE IF NOT EXISTS book_domain_id_seq INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS book (
+    id                 integer PRIMARY KEY,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    title              varchar(255),
+    author_name        varchar(255),
+    isbn               varchar(255),
+    synopsis           varchar(255),
+    book_cover         varchar(255),
+    archived           boolean      NOT NULL DEFAULT false,
+    shareable          boolean      NOT NULL DEFAULT false,
+    owner_id           integer
+);
+
+CREATE INDEX IF NOT EXISTS book_owner_idx ON book (owner_id);
+
+CREATE TABLE IF NOT EXISTS feedback (
+    id                 integer PRIMARY KEY,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    note               double precision,
+    comment            varchar(255),
+    book_id            integer REFERENCES book (id)
+);
+
+CREATE INDEX IF NOT EXISTS feedback_book_idx ON feedback (book_id);
+
+CREATE OR REPLACE FUNCTION create_book_transaction_history_partition(month_start date) RETURNS void AS $$
+DECLARE
+    from_date date := date_trunc('month', month_start)::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF book_transaction_history FOR VALUES FROM (%L) TO (%L)',
+                   'book_transaction_history_p' || to_char(from_date, 'YYYYMM'),
+                   from_date,
+                   (from_date + interval '1 month')::date);
+END
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION create_book_transaction_history_archive_partition(year_start date) RETURNS void AS $$
+DECLARE
+    from_date date := date_trunc('year', year_start)::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF book_transaction_history_archive FOR VALUES FROM (%L) TO (%L)',
+                   'book_transaction_history_archive_p' || to_char(from_date, 'YYYY'),
+                   from_date,
+                   (from_date + interval '1 year')::date);
+END
+$$ LANGUAGE plpgsql;
+
+-- same layout as db/migration/V1__partition_book_transaction_history.sql
+CREATE TABLE IF NOT EXISTS book_transaction_history (
+    id                 integer      NOT NULL,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    returned           boolean      NOT NULL DEFAULT false,
+    return_approved    boolean      NOT NULL DEFAULT false,
+    book_id            integer,
+    user_id            integer,
+    PRIMARY KEY (id, created_date)
+) PARTITION BY RANGE (created_date);
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_default PARTITION OF book_transaction_history DEFAULT;
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_archive (
+    id                 integer      NOT NULL,
+    created_date       timestamp(6) NOT NULL,
+    last_modified_date timestamp(6),
+    created_by         integer      NOT NULL,
+    last_modified_by   integer,
+    returned           boolean      NOT NULL,
+    return_approved    boolean      NOT NULL,
+    book_id            integer,
+    user_id            integer,
+    archived_at        timestamp(6) NOT NULL DEFAULT now(),
+    PRIMARY KEY (id, created_date)
+) PARTITION BY RANGE (created_date);
+
+CREATE TABLE IF NOT EXISTS book_transaction_history_archive_default PARTITION OF book_transaction_history_archive DEFAULT;
+
+DO $$
+BEGIN
+    FOR i IN 0..3 LOOP
+        PERFORM create_book_transaction_history_partition((date_trunc('month', now()) + make_interval(months => i))::date);
+    END LOOP;
+END
+$$;
+
+CREATE INDEX IF NOT EXISTS book_transaction_history_user_created_idx ON book_transaction_history (user_id, created_date DESC);
+CREATE INDEX IF NOT EXISTS book_transaction_history_book_created_idx ON book_transaction_history (book_id, created_date DESC);
+CREATE INDEX IF NOT EXISTS book_transaction_history_open_idx ON book_transaction_history (book_id) WHERE NOT returned;
+CREATE INDEX IF NOT EXISTS book_transaction_history_archive_user_created_idx ON book_transaction_history_archive (user_id, created_date DESC);
+
+CREATE OR REPLACE VIEW book_transaction_history_all AS
+SELECT id, created_date, last_modified_date, created_by, last_modified_by, returned, return_approved, book_id, user_id
+FROM book_transaction_history
+UNION ALL
+SELECT id, created_date, last_modified_date, created_by, last_modified_by, returned, return_approved, book_id, user_id
+FROM book_transaction_history_archive;
@@ -0,0 +1,2 @@
+-- the feedbacks written by a user, anonymized in keyset batches when their account is deleted
+CREATE INDEX IF NOT EXISTS feedback_created_by_idx ON feedback (created_by, id);
@@ -0,0 +1,78 @@
+package com.amr.book.autocomplete;
+
+import com.amr.book.book.BookChangedEvent;
+import com.amr.book.common.EntityChange;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//the delta of the book changes, read along the index and merged into it: no database involved
+class AutocompleteServiceTests {
+
+	private final AutocompleteService service = new AutocompleteService(null,
+			new DriverManagerDataSource("jdbc:postgresql://localhost/unused"), null, 100, 10);
+
+	@Test
+	void aNewBookIsSuggestedBeforeAndAfterTheMerge() {
+		service.onBookChanged(created(1, "Dune", "Frank Herbert"));
+		service.onBookChanged(created(2, "Dune Messiah", "Frank Herbert"));
+
+		assertEquals(List.of(title("Dune", 1), title("Dune Messiah", 1)), service.suggest("du", 10));
+		assertEquals(List.of(author("Frank Herbert", 2)), service.suggest("herb", 10));
+
+		service.mergeDelta();
+
+		assertEquals(List.of(title("Dune", 1), title("Dune Messiah", 1)), service.suggest("du", 10));
+		assertEquals(List.of(author("Frank Herbert", 2)), service.suggest("herb", 10));
+	}
+
+	@Test
+	void aRenamedOrHiddenBookIsRemovedBeforeAndAfterTheMerge() {
+		service.onBookChanged(created(1, "Dune", "Frank Herbert"));
+		service.onBookChanged(created(2, "Emma", "Jane Austen"));
+		service.mergeDelta();
+
+		service.onBookChanged(new BookChangedEvent(1, 1, EntityChange.UPDATED, true, false, true, false,
+				"Dune Messiah", "Frank Herbert", "Dune", "Frank Herbert"));
+		service.onBookChanged(new BookChangedEvent(2, 1, EntityChange.UPDATED, true, true, true, false,
+				"Emma", "Jane Austen", "Emma", "Jane Austen"));
+
+		assertEquals(List.of(title("Dune Messiah", 1)), service.suggest("dune", 10));
+		assertEquals(List.of(), service.suggest("emma", 10));
+		assertEquals(List.of(), service.suggest("austen", 10));
+
+		service.mergeDelta();
+
+		assertEquals(List.of(title("Dune Messiah", 1)), service.suggest("dune", 10));
+		assertEquals(List.of(), service.suggest("emma", 10));
+		assertEquals(List.of(), service.suggest("austen", 10));
+	}
+
+	@Test
+	void theSizeIsCappedAndAnEmptyPrefixFindsNothing() {
+		for (int i = 0; i < 20; i++) {
+			service.onBookChanged(created(i, "Book " + i, "Author"));
+		}
+		service.mergeDelta();
+
+		assertEquals(10, service.suggest("book", 50).size());
+		assertEquals(1, service.suggest("book", 0).size());
+		assertEquals(List.of(), service.suggest(" - ", 10));
+	}
+
+	private static BookChangedEvent created(int id, String title, String authorName) {
+		return new BookChangedEvent(id, 1, EntityChange.CREATED, true, false, false, false,
+				title, authorName, null, null);
+	}
+
+	private static SuggestionResponse title(String text, int books) {
+		return new SuggestionResponse(text, SuggestionKind.TITLE, books);
+	}
+
+	private static SuggestionResponse author(String text, int books) {
+		return new SuggestionResponse(text, SuggestionKind.AUTHOR, books);
+	}
+}
@@ -0,0 +1,158 @@
+package com.amr.book.autocomplete;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuggestionIndexTests {
+
+	@Test
+	void normalizeLowersAndStripsAccentsAndPunctuation() {
+		assertEquals("les miserables", SuggestionIndex.normalize("  Les Misérables! "));
+		assertEquals("l etranger", SuggestionIndex.normalize("L'Étranger"));
+		assertEquals("", SuggestionIndex.normalize(" -- "));
+		assertEquals("", SuggestionIndex.normalize(null));
+	}
+
+	@Test
+	void prefixFindsTheRangeOfTheWordsStartingWithIt() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.TITLE, "Dune", 1, 1)
+				.add(SuggestionKind.TITLE, "Dune Messiah", 1, 1)
+				.add(SuggestionKind.TITLE, "Dubliners", 1, 1)
+				.add(SuggestionKind.TITLE, "Emma", 1, 1)
+				.build();
+
+		assertEquals(List.of("dubliners", "dune", "dune messiah"), sorted(keys(index, "du")));
+		assertEquals(List.of("dune", "dune messiah"), sorted(keys(index, "dune")));
+		assertEquals(List.of("dune messiah"), keys(index, "dune m"));
+		assertEquals(List.of("emma"), keys(index, "emma"));
+		assertEquals(List.of(), keys(index, "dunes"));
+		assertEquals(List.of(), keys(index, "a"));
+		assertEquals(List.of(), keys(index, "zz"));
+	}
+
+	@Test
+	void prefixFindsTheWordsInTheMiddleOfATitle() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.TITLE, "Harry Potter and the Goblet of Fire", 1, 1)
+				.add(SuggestionKind.AUTHOR, "Beatrix Potter", 1, 1)
+				.add(SuggestionKind.TITLE, "Spotted", 1, 1)
+				.build();
+
+		assertEquals(List.of("beatrix potter", "harry potter and the goblet of fire"), sorted(keys(index, "pot")));
+		assertEquals(List.of("harry potter and the goblet of fire"), keys(index, "goblet of f"));
+		//a word start only, not any substring
+		assertEquals(List.of(), keys(index, "otter"));
+	}
+
+	@Test
+	void anEntryMatchedAtTwoWordStartsIsVisitedOnce() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.TITLE, "Tom and Tomasina", 1, 1)
+				.add(SuggestionKind.TITLE, "Tom Sawyer", 1, 1)
+				.build();
+
+		assertEquals(List.of("tom and tomasina", "tom sawyer"), sorted(keys(index, "tom")));
+	}
+
+	@Test
+	void entriesComeHeaviestFirstAndTheWalkStopsWhenAsked() {
+		SuggestionIndex.Builder builder = new SuggestionIndex.Builder();
+		for (int i = 0; i < 100; i++) {
+			builder.add(SuggestionKind.TITLE, "Book " + i, 1, (i * 37) % 100);
+		}
+		SuggestionIndex index = builder.build();
+
+		List<Long> weights = new ArrayList<>();
+		index.walk("book", entry -> weights.add(index.weight(entry)));
+		assertEquals(100, weights.size());
+		for (int i = 1; i < weights.size(); i++) {
+			assertTrue(weights.get(i - 1) >= weights.get(i), "weights " + weights);
+		}
+
+		List<Long> top = new ArrayList<>();
+		index.walk("book", entry -> {
+			top.add(index.weight(entry));
+			return top.size() < 3;
+		});
+		assertEquals(List.of(99L, 98L, 97L), top);
+	}
+
+	@Test
+	void theSameTextIsOneEntryWithTheBooksAndWeightsSummed() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.AUTHOR, "Jane Austen", 1, 3)
+				.add(SuggestionKind.AUTHOR, "jane  AUSTEN", 1, 4)
+				.add(SuggestionKind.TITLE, "Jane Austen", 1, 1)
+				.build();
+
+		assertEquals(2, index.size());
+		int author = index.find(SuggestionKind.AUTHOR, "jane austen");
+		assertEquals("Jane Austen", index.text(author));
+		assertEquals(2, index.books(author));
+		assertEquals(7, index.weight(author));
+		assertEquals(1, index.books(index.find(SuggestionKind.TITLE, "jane austen")));
+	}
+
+	@Test
+	void findMatchesTheWholeTextOfItsKindOnly() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.TITLE, "Potter", 1, 1)
+				.add(SuggestionKind.TITLE, "Harry Potter", 1, 1)
+				.add(SuggestionKind.AUTHOR, "Harry", 1, 1)
+				.build();
+
+		assertEquals("potter", index.key(index.find(SuggestionKind.TITLE, "potter")));
+		assertEquals("harry potter", index.key(index.find(SuggestionKind.TITLE, "harry potter")));
+		assertEquals(-1, index.find(SuggestionKind.TITLE, "harry"));
+		assertEquals(-1, index.find(SuggestionKind.AUTHOR, "potter"));
+		assertEquals(-1, index.find(SuggestionKind.TITLE, "pott"));
+		assertEquals(-1, SuggestionIndex.EMPTY.find(SuggestionKind.TITLE, "potter"));
+	}
+
+	@Test
+	void aDeltaMergedIntoTheIndexAddsAndRemovesEntries() {
+		SuggestionIndex index = new SuggestionIndex.Builder()
+				.add(SuggestionKind.TITLE, "Dune", 2, 2)
+				.add(SuggestionKind.TITLE, "Emma", 1, 1)
+				.build();
+
+		//what AutocompleteService.mergeDelta does: the index plus the delta of the book changes
+		SuggestionIndex merged = new SuggestionIndex.Builder()
+				.addAll(index)
+				.add(SuggestionKind.TITLE, "Dune", -1, -1)
+				.add(SuggestionKind.TITLE, "Emma", -1, -1)
+				.add(SuggestionKind.TITLE, "Dracula", 1, 1)
+				.build();
+
+		assertEquals(2, merged.size());
+		assertEquals(1, merged.books(merged.find(SuggestionKind.TITLE, "dune")));
+		assertEquals(-1, merged.find(SuggestionKind.TITLE, "emma"));
+		assertEquals(List.of(), keys(merged, "em"));
+		assertEquals(List.of("dracula", "dune"), sorted(keys(merged, "d")));
+		//the index merged from is not changed
+		assertEquals(2, index.books(index.find(SuggestionKind.TITLE, "dune")));
+		assertEquals(List.of("emma"), keys(index, "em"));
+	}
+
+	@Test
+	void theEmptyIndexHasNothing() {
+		assertEquals(0, SuggestionIndex.EMPTY.size());
+		assertEquals(List.of(), keys(SuggestionIndex.EMPTY, "a"));
+	}
+
+	private static List<String> keys(SuggestionIndex index, String prefix) {
+		List<String> keys = new ArrayList<>();
+		index.walk(prefix, entry -> keys.add(index.key(entry)));
+		return keys;
+	}
+
+	private static List<String> sorted(List<String> keys) {
+		return keys.stream().sorted().toList();
+	}
+}
@@ -0,0 +1,34 @@
+package com.amr.book.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvRowWriterTests {
+
+	@Test
+	void fieldsAreQuotedOnlyWhenNeeded() throws IOException {
+		assertEquals("title,comment\r\nDune,\"a, b\",\"say \"\"hi\"\"\",,\"two\nlines\"\r\n",
+				write(new String[]{"title", "comment"}, new Object[]{"Dune", "a, b", "say \"hi\"", null, "two\nlines"}));
+	}
+
+	@Test
+	void aTextStartingLikeAFormulaIsNotRunByASpreadsheet() throws IOException {
+		assertEquals("c\r\n\"'=HYPERLINK(\"\"x\"\")\",'+1,'-1,'@SUM(A1),'\tx,-1,2.5\r\n",
+				write(new String[]{"c"}, new Object[]{"=HYPERLINK(\"x\")", "+1", "-1", "@SUM(A1)", "\tx", -1, 2.5}));
+		assertEquals("c\r\n\"'=1,2\"\r\n", write(new String[]{"c"}, new Object[]{"=1,2"}));
+	}
+
+	private static String write(String[] header, Object[] row) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CsvRowWriter writer = new CsvRowWriter(out);
+		writer.header(header);
+		writer.row(row);
+		writer.finish();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+}
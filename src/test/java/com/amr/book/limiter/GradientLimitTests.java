@@ -0,0 +1,59 @@
+package com.amr.book.limiter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GradientLimitTests {
+
+	private static final long MS = 1_000_000;
+
+	@Test
+	void theLimitGrowsUpToTheMaxWhileTheLatencyStaysLow() {
+		GradientLimit limit = new GradientLimit(20, 4, 100, 0.2, 600, 10);
+
+		for (int i = 0; i < 1_000; i++) {
+			limit.onSample(10 * MS, limit.limit());
+		}
+
+		assertEquals(100, limit.limit());
+	}
+
+	@Test
+	void theLimitShrinksDownToTheMinWhenTheLatencyGrows() {
+		GradientLimit limit = new GradientLimit(50, 4, 100, 0.2, 600, 10);
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(10 * MS, limit.limit());
+		}
+		int before = limit.limit();
+
+		for (int i = 0; i < 20; i++) {
+			limit.onSample(100 * MS, limit.limit());
+		}
+		int shrunk = limit.limit();
+		assertTrue(shrunk < before, before + " -> " + shrunk);
+
+		for (int i = 0; i < 1_000; i++) {
+			limit.onSample(1_000 * MS, limit.limit());
+		}
+		assertEquals(4, limit.limit());
+	}
+
+	@Test
+	void theLimitDoesNotGrowWhileLessThanHalfOfItIsUsed() {
+		GradientLimit limit = new GradientLimit(20, 4, 100, 0.2, 600, 10);
+
+		for (int i = 0; i < 1_000; i++) {
+			limit.onSample(10 * MS, 9);
+		}
+
+		assertEquals(20, limit.limit());
+	}
+
+	@Test
+	void theInitialLimitIsKeptWithinTheBounds() {
+		assertEquals(4, new GradientLimit(1, 4, 100, 0.2, 600, 10).limit());
+		assertEquals(100, new GradientLimit(500, 4, 100, 0.2, 600, 10).limit());
+	}
+}
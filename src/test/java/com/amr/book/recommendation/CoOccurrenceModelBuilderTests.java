@@ -0,0 +1,55 @@
+package com.amr.book.recommendation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CoOccurrenceModelBuilderTests {
+
+	@Test
+	void theReadersOfBooksOnDifferentShardsAreOneBasket() {
+		//books 10 and 30 on one shard, book 20 on the other
+		CoOccurrenceModelBuilder first = new CoOccurrenceModelBuilder();
+		first.add(1, 10);
+		first.add(2, 10);
+		first.add(3, 30);
+		CoOccurrenceModelBuilder second = new CoOccurrenceModelBuilder();
+		second.add(1, 20);
+		second.add(3, 20);
+		second.add(4, 20);
+		second.add(5, 20);
+
+		CoOccurrenceModel model = build(CoOccurrenceModelBuilder.merge(List.of(first, second)));
+
+		assertEquals(5, model.getUsers());
+		assertEquals(7, model.getLoans());
+		assertArrayEquals(new long[]{CoOccurrenceModel.pack(1, 20)}, model.neighbours(10));
+		assertArrayEquals(new long[]{CoOccurrenceModel.pack(1, 30), CoOccurrenceModel.pack(1, 10)}, model.neighbours(20));
+		assertArrayEquals(new long[]{CoOccurrenceModel.pack(1, 20)}, model.neighbours(30));
+	}
+
+	@Test
+	void mergingOneBuilderKeepsIt() {
+		CoOccurrenceModelBuilder builder = new CoOccurrenceModelBuilder();
+		builder.add(1, 10);
+		builder.add(1, 20);
+
+		CoOccurrenceModel model = build(CoOccurrenceModelBuilder.merge(List.of(builder, new CoOccurrenceModelBuilder())));
+
+		assertEquals(1, model.getUsers());
+		assertArrayEquals(new long[]{CoOccurrenceModel.pack(1, 20)}, model.neighbours(10));
+	}
+
+	private static CoOccurrenceModel build(CoOccurrenceModelBuilder builder) {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			return builder.build(10, 500, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.amr.book.scheduling;
+
+import com.amr.book.BookNetworkApplication;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * two nodes of the cluster: two application contexts on the same local database (docker-compose)
+ */
+class ClusterJobRunnerTests {
+
+	private static final int SHARDS = 8;
+
+	private final String jobName = "test-job-" + UUID.randomUUID();
+	private ConfigurableApplicationContext nodeA;
+	private ConfigurableApplicationContext nodeB;
+	private ExecutorService pool;
+
+	@BeforeEach
+	void startNodes() {
+		nodeA = startNode("node-a");
+		nodeB = startNode("node-b");
+		pool = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterEach
+	void stopNodes() {
+		pool.shutdownNow();
+		for (ConfigurableApplicationContext node : List.of(nodeA, nodeB)) {
+			if (node.isActive()) {
+				node.close();
+			}
+		}
+	}
+
+	@Test
+	void exclusiveJobRunsOnOneNode() throws Exception {
+		AtomicInteger runs = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		Future<Boolean> a = pool.submit(() -> {
+			start.await();
+			return runner(nodeA).runExclusive(jobName, () -> slowRun(runs));
+		});
+		Future<Boolean> b = pool.submit(() -> {
+			start.await();
+			return runner(nodeB).runExclusive(jobName, () -> slowRun(runs));
+		});
+		start.countDown();
+
+		assertTrue(a.get(1, TimeUnit.MINUTES) ^ b.get(1, TimeUnit.MINUTES));
+		assertEquals(1, runs.get());
+		//the completed lease is held for a while, a node triggered later does not run it again
+		assertFalse(runner(nodeB).runExclusive(jobName, runs::incrementAndGet));
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	void everyShardRunsOnce() throws Exception {
+		Map<Integer, AtomicInteger> runsByShard = new ConcurrentHashMap<>();
+		Map<String, AtomicInteger> shardsByNode = new ConcurrentHashMap<>();
+		//other contexts of the test run may count as live nodes and lower the share: the rounds go on until every shard ran
+		for (int round = 0; round < 5 && runsByShard.size() < SHARDS; round++) {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Integer>> nodes = List.of(
+					pool.submit(() -> {
+						start.await();
+						return runner(nodeA).runSharded(jobName, SHARDS, shard -> record(runsByShard, shardsByNode, "a", shard));
+					}),
+					pool.submit(() -> {
+						start.await();
+						return runner(nodeB).runSharded(jobName, SHARDS, shard -> record(runsByShard, shardsByNode, "b", shard));
+					}));
+			start.countDown();
+			for (Future<Integer> node : nodes) {
+				node.get(1, TimeUnit.MINUTES);
+			}
+		}
+
+		assertEquals(SHARDS, runsByShard.size());
+		runsByShard.forEach((shard, runs) -> assertEquals(1, runs.get(), "shard " + shard + " ran twice"));
+		assertEquals(2, shardsByNode.size(), "the shards were not spread over the nodes");
+	}
+
+	@Test
+	void theSharesOfAnIdleNodeAreTakenOverInTheSameRound() {
+		//a node with a fresh heartbeat that never runs the job
+		JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+		String idleNode = "idle-" + UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO job_node (node_id, heartbeat_at) VALUES (?, now())", idleNode);
+		try {
+			Map<Integer, AtomicInteger> runsByShard = new ConcurrentHashMap<>();
+			Map<String, AtomicInteger> shardsByNode = new ConcurrentHashMap<>();
+
+			int run = runner(nodeA).runSharded(jobName, SHARDS, shard -> record(runsByShard, shardsByNode, "a", shard));
+
+			assertEquals(SHARDS, run);
+			assertEquals(SHARDS, runsByShard.size());
+		} finally {
+			jdbcTemplate.update("DELETE FROM job_node WHERE node_id = ?", idleNode);
+		}
+	}
+
+	@Test
+	void jobIsTakenOverWhenTheNodeStops() throws Exception {
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+		pool.submit(() -> runner(nodeA).runExclusive(jobName, () -> {
+			running.countDown();
+			await(finish);
+		}));
+		assertTrue(running.await(1, TimeUnit.MINUTES));
+		assertFalse(runner(nodeB).runExclusive(jobName, () -> {
+		}));
+
+		//the node releases its running leases when it stops
+		nodeA.close();
+		AtomicInteger runs = new AtomicInteger();
+		assertTrue(runner(nodeB).runExclusive(jobName, runs::incrementAndGet));
+		assertEquals(1, runs.get());
+		finish.countDown();
+	}
+
+	private static ConfigurableApplicationContext startNode(String name) {
+		return new SpringApplicationBuilder(BookNetworkApplication.class)
+				.properties(
+						"server.port=0",
+						"application.cluster.node-id=" + name + "-" + UUID.randomUUID(),
+						"application.cluster.lease-ttl=3s",
+						"application.warmup.enabled=false")
+				.run();
+	}
+
+	private static ClusterJobRunner runner(ConfigurableApplicationContext node) {
+		ClusterJobRunner runner = node.getBean(ClusterJobRunner.class);
+		//both nodes are live before the shares are computed
+		runner.heartbeat();
+		return runner;
+	}
+
+	private static void record(Map<Integer, AtomicInteger> runsByShard, Map<String, AtomicInteger> shardsByNode,
+							   String node, JobShard shard) {
+		runsByShard.computeIfAbsent(shard.index(), key -> new AtomicInteger()).incrementAndGet();
+		shardsByNode.computeIfAbsent(node, key -> new AtomicInteger()).incrementAndGet();
+		sleep(200);
+	}
+
+	private static void slowRun(AtomicInteger runs) {
+		runs.incrementAndGet();
+		//longer than the gap between the two triggers, the other node finds the lease taken
+		sleep(1000);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.amr.book.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuthorityBitsTests {
+
+	@Test
+	void hasTheBitsItWasMadeOf() {
+		AuthorityBits bits = AuthorityBits.of(0, 3, 64, 130, -1);
+
+		assertTrue(bits.has(0));
+		assertTrue(bits.has(3));
+		assertTrue(bits.has(64));
+		assertTrue(bits.has(130));
+		assertFalse(bits.has(1));
+		assertFalse(bits.has(63));
+		assertFalse(bits.has(500));
+		assertFalse(bits.has(-1));
+		assertArrayEquals(new int[]{0, 3, 64, 130}, bits.bits());
+		assertSame(AuthorityBits.NONE, AuthorityBits.of());
+		assertSame(AuthorityBits.NONE, AuthorityBits.of(-1));
+	}
+
+	@Test
+	void intersectsWhenOneAuthorityIsShared() {
+		AuthorityBits admin = AuthorityBits.of(1, 70);
+
+		assertTrue(admin.intersects(AuthorityBits.of(70)));
+		assertTrue(AuthorityBits.of(2, 1).intersects(admin));
+		assertFalse(admin.intersects(AuthorityBits.of(2, 71)));
+		assertFalse(admin.intersects(AuthorityBits.NONE));
+		assertFalse(AuthorityBits.NONE.intersects(admin));
+	}
+
+	@Test
+	void encodeAndDecodeRoundTrip() {
+		for (AuthorityBits bits : new AuthorityBits[]{
+				AuthorityBits.NONE, AuthorityBits.of(0), AuthorityBits.of(7), AuthorityBits.of(8),
+				AuthorityBits.of(63), AuthorityBits.of(1, 64, 200)}) {
+			assertEquals(bits, AuthorityBits.decode(bits.encode()), bits.toString());
+		}
+		//the first 8 roles fit in 2 characters
+		assertEquals("_w", AuthorityBits.of(0, 1, 2, 3, 4, 5, 6, 7).encode());
+		assertEquals("", AuthorityBits.NONE.encode());
+		assertSame(AuthorityBits.NONE, AuthorityBits.decode(null));
+		assertSame(AuthorityBits.NONE, AuthorityBits.decode(""));
+	}
+
+	@Test
+	void trailingZeroWordsDoNotMatter() {
+		AuthorityBits padded = AuthorityBits.decode("AgAAAAAAAAAA");
+
+		assertEquals(AuthorityBits.of(1), padded);
+		assertEquals(AuthorityBits.of(1).hashCode(), padded.hashCode());
+		assertTrue(AuthorityBits.decode("AA").isEmpty());
+		assertEquals(AuthorityBits.NONE, AuthorityBits.decode("AA"));
+	}
+
+	@Test
+	void decodeRefusesWhatIsNotBase64Url() {
+		assertThrows(IllegalArgumentException.class, () -> AuthorityBits.decode("a+b/"));
+	}
+}
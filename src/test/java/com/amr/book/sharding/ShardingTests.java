@@ -0,0 +1,155 @@
+package com.amr.book.sharding;
+
+import com.amr.book.book.Book;
+import com.amr.book.book.BookCatalogService;
+import com.amr.book.book.BookResponse;
+import com.amr.book.user.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * the sharded profile: the global database and the two book shards of docker-compose
+ */
+@SpringBootTest(properties = "application.warmup.enabled=false")
+@ActiveProfiles({"dev", "sharded"})
+class ShardingTests {
+
+	@Autowired
+	private ShardRouter router;
+	@Autowired
+	private ShardingProperties properties;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private BookCatalogService catalog;
+	@Autowired
+	private ConfigurableApplicationContext context;
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	//owner ids no real user has, ownerBase + b is in bucket b
+	private final int ownerBase = 1_500_000_000 + ThreadLocalRandom.current().nextInt(1_000_000) * ShardRouter.BUCKETS;
+
+	@AfterEach
+	void cleanUp() {
+		List<Integer> databases = new ArrayList<>(router.shards());
+		databases.add(ShardRouter.GLOBAL);
+		for (int database : databases) {
+			ShardContext.run(database, () -> jdbcTemplate.update("DELETE FROM book WHERE owner_id BETWEEN ? AND ?",
+					ownerBase, ownerBase + ShardRouter.BUCKETS - 1));
+		}
+		jdbcTemplate.update("DELETE FROM user_stats WHERE user_id BETWEEN ? AND ?", ownerBase, ownerBase + ShardRouter.BUCKETS - 1);
+	}
+
+	@Test
+	void idsCarryTheBucketOfTheOwnerOnTheShards() {
+		for (int bucket : new int[]{0, 1, 17, 63}) {
+			int owner = ownerBase + bucket;
+			int shard = router.shardOfOwner(owner);
+			int id = persistBook(owner, shard);
+
+			assertEquals(bucket, ShardRouter.bucketOfId(id));
+			assertEquals(shard, router.shardOfId(id));
+			assertEquals(1, countOn(shard, id));
+		}
+	}
+
+	@Test
+	void idsArePlainOnTheGlobalDatabase() {
+		int first = persistBook(ownerBase, ShardRouter.GLOBAL);
+		int second = persistBook(ownerBase, ShardRouter.GLOBAL);
+
+		assertEquals(first + 1, second);
+	}
+
+	@Test
+	void catalogMergesTheShards() {
+		List<Integer> ids = new ArrayList<>();
+		for (int bucket = 0; bucket < 4; bucket++) {
+			ids.add(persistBook(ownerBase + bucket, router.shardOfOwner(ownerBase + bucket)));
+		}
+		assertEquals(2, ids.stream().map(router::shardOfId).distinct().count(), "the books are not on both shards");
+
+		List<Integer> page = catalogPage(Collections.max(ids) + 1);
+
+		assertTrue(page.containsAll(ids), "missing books in " + page);
+		assertEquals(page.stream().sorted(Comparator.reverseOrder()).toList(), page);
+	}
+
+	@Test
+	void reshardingMovesTheBucketsAndTheCatalogStillFindsThem() {
+		int owner = ownerBase + 1;
+		int shard = router.shardOfOwner(owner);
+		assertNotEquals(0, shard, "bucket 1 is expected on shard 1");
+		int id = persistBook(owner, shard);
+		try {
+			reshardingTool(1).reshard();
+
+			assertEquals(0, router.shardOfOwner(owner));
+			assertEquals(1, countOn(0, id));
+			assertEquals(0, countOn(shard, id));
+			assertTrue(catalogPage(id + 1).contains(id));
+		} finally {
+			//back to the two shards for the other tests
+			reshardingTool(2).reshard();
+		}
+		assertEquals(shard, router.shardOfOwner(owner));
+		assertEquals(1, countOn(shard, id));
+		assertEquals(0, countOn(0, id));
+	}
+
+	private int persistBook(int ownerId, int shard) {
+		return ShardContext.call(shard, () -> new TransactionTemplate(transactionManager).execute(status -> {
+			Book book = Book.builder()
+					.title("sharding test")
+					.authorName("sharding test")
+					.shareable(true)
+					.owner(entityManager.getReference(User.class, ownerId))
+					.createdBy(ownerId)
+					.build();
+			entityManager.persist(book);
+			entityManager.flush();
+			return book.getId();
+		}));
+	}
+
+	private int countOn(int shard, int bookId) {
+		Integer rows = ShardContext.call(shard, () ->
+				jdbcTemplate.queryForObject("SELECT count(*) FROM book WHERE id = ?", Integer.class, bookId));
+		return rows == null ? 0 : rows;
+	}
+
+	//seen by a user that owns none of the books
+	private List<Integer> catalogPage(int after) {
+		return catalog.findCatalogPage(ownerBase - 1, after, 100).getContent().stream()
+				.map(BookResponse::getId)
+				.toList();
+	}
+
+	private ReshardingTool reshardingTool(int targetShards) {
+		ShardingProperties reshard = new ShardingProperties(true, properties.shards(),
+				new ShardingProperties.Reshard(true, false, targetShards, 1000));
+		return new ReshardingTool(router, reshard, jdbcTemplate, context);
+	}
+}
@@ -0,0 +1,181 @@
+package com.amr.book.waitlist;
+
+import com.amr.book.handler.BusinessErrorCodes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+class WaitlistServiceTests {
+
+	private static final int USERS = 200;
+	private static final int THREADS = 16;
+
+	@Autowired
+	private WaitlistService service;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	//a book id no real book uses, its owner gets the same id
+	private final int bookId = 2_000_000_000 + ThreadLocalRandom.current().nextInt(100_000_000);
+
+	//a shared book out on loan, the only kind with a waitlist
+	@BeforeEach
+	void lendBook() {
+		jdbcTemplate.update("""
+				INSERT INTO _user (id, firstname, lastname, email, password, account_locked, enabled, created_date)
+				VALUES (?, 'waitlist', 'owner', ?, 'x', false, true, now())
+				""", bookId, "waitlist-owner-" + bookId + "@test.local");
+		jdbcTemplate.update("""
+				INSERT INTO book (id, created_date, created_by, title, author_name, isbn, archived, shareable, owner_id)
+				VALUES (?, now(), ?, 'waitlist', 'test', ?, false, true, ?)
+				""", bookId, bookId, String.valueOf(bookId), bookId);
+		jdbcTemplate.update("""
+				INSERT INTO book_transaction_history (id, created_date, created_by, returned, return_approved, book_id, user_id)
+				VALUES (?, now(), ?, false, false, ?, NULL)
+				""", bookId, bookId, bookId);
+	}
+
+	@AfterEach
+	void cleanUp() {
+		jdbcTemplate.update("DELETE FROM book_waitlist WHERE book_id = ?", bookId);
+		jdbcTemplate.update("DELETE FROM book_transaction_history WHERE book_id = ?", bookId);
+		jdbcTemplate.update("DELETE FROM book WHERE id = ?", bookId);
+		jdbcTemplate.update("DELETE FROM _user WHERE id = ?", bookId);
+	}
+
+	@Test
+	void concurrentJoinsGetDistinctFifoPositions() throws Exception {
+		joinAll();
+
+		Set<Integer> positions = new HashSet<>();
+		for (int user = 1; user <= USERS; user++) {
+			positions.add(service.position(bookId, user).position());
+		}
+		assertEquals(USERS, positions.size());
+		assertFalse(positions.contains(0));
+		assertEquals(USERS, service.position(bookId, 1).waiting());
+
+		//the positions follow the order of the rows, the first to commit is the first served
+		List<Integer> joinOrder = jdbcTemplate.queryForList(
+				"SELECT user_id FROM book_waitlist WHERE book_id = ? AND status = 'WAITING' ORDER BY id", Integer.class, bookId);
+		assertEquals(USERS, joinOrder.size());
+		for (int i = 0; i < joinOrder.size(); i++) {
+			assertEquals(i + 1, service.position(bookId, joinOrder.get(i)).position(), "user " + joinOrder.get(i));
+		}
+	}
+
+	@Test
+	void joinIsRefusedWhenThereIsNothingToWaitFor() {
+		assertRefused(BusinessErrorCodes.BOOK_NOT_FOUND, bookId + 1, 1);
+		assertRefused(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, bookId, bookId);
+
+		jdbcTemplate.update("UPDATE book SET shareable = false WHERE id = ?", bookId);
+		assertRefused(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, bookId, 1);
+
+		jdbcTemplate.update("UPDATE book SET shareable = true, archived = true WHERE id = ?", bookId);
+		assertRefused(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, bookId, 1);
+
+		//returned and approved: the book is available
+		jdbcTemplate.update("UPDATE book SET archived = false WHERE id = ?", bookId);
+		jdbcTemplate.update("UPDATE book_transaction_history SET returned = true, return_approved = true WHERE book_id = ?", bookId);
+		assertRefused(BusinessErrorCodes.WAITLIST_NOT_ALLOWED, bookId, 1);
+
+		assertEquals(0, count("WAITING"));
+	}
+
+	@Test
+	void concurrentReturnsNeverHandTheBookTwice() throws Exception {
+		joinAll();
+
+		Map<Integer, AtomicInteger> offersByUser = new ConcurrentHashMap<>();
+		AtomicInteger maxOpenOffers = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> returns = new ArrayList<>();
+			//every thread returns the book again and again, the one that wins the handoff lends it and returns it
+			for (int i = 0; i < THREADS; i++) {
+				returns.add(pool.submit(() -> {
+					start.await();
+					while (true) {
+						Integer user = service.handOff(bookId);
+						if (user != null) {
+							offersByUser.computeIfAbsent(user, key -> new AtomicInteger()).incrementAndGet();
+							maxOpenOffers.accumulateAndGet(count("OFFERED"), Math::max);
+							service.serve(bookId, user);
+						} else if (count("WAITING") == 0 && count("OFFERED") == 0) {
+							return null;
+						}
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : returns) {
+				future.get(2, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(1, maxOpenOffers.get());
+		assertEquals(USERS, offersByUser.size());
+		offersByUser.forEach((user, offers) -> assertEquals(1, offers.get(), "user " + user + " got the book twice"));
+		assertEquals(USERS, count("SERVED"));
+	}
+
+	private void joinAll() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> joins = new ArrayList<>();
+			for (int user = 1; user <= USERS; user++) {
+				int userId = user;
+				joins.add(pool.submit(() -> {
+					start.await();
+					//twice: joining again keeps the first place
+					service.join(bookId, userId);
+					return service.join(bookId, userId);
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : joins) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void assertRefused(BusinessErrorCodes code, int book, int user) {
+		WaitlistJoinRefusedException refused = assertThrows(WaitlistJoinRefusedException.class, () -> service.join(book, user));
+		assertEquals(code, refused.getCode());
+	}
+
+	private int count(String status) {
+		Integer rows = jdbcTemplate.queryForObject(
+				"SELECT count(*) FROM book_waitlist WHERE book_id = ? AND status = ?", Integer.class, bookId, status);
+		return rows == null ? 0 : rows;
+	}
+}